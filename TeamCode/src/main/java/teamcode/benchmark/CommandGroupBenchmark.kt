@@ -0,0 +1,241 @@
+package teamcode.benchmark
+
+import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp
+import teamcode.robot.command.Command
+import teamcode.robot.command.CommandCompiler
+import teamcode.robot.command.ParallelCommandGroup
+import teamcode.robot.command.ParallelRaceGroup
+import teamcode.robot.command.SequentialCommandGroup
+
+/**
+ * Compares nested command groups with the same tree compiled by CommandCompiler.
+ *
+ * Builds a deep sequence/parallel/race tree of counting commands (no hardware),
+ * runs it to completion many times on this thread both ways and reports:
+ *
+ * - Time per scheduler tick
+ * - Allocations per run (android.os.Debug thread allocation counting)
+ * - Whether both produced the exact same initialize/end trace, for that tree and
+ *   for a smaller one with children that throw in initialize() and periodic()
+ */
+@TeleOp(name = "Benchmark: Command Groups", group = "Benchmark")
+class CommandGroupBenchmark : LinearOpMode() {
+
+    private val nestedTrace = Trace()
+    private val compiledTrace = Trace()
+
+    override fun runOpMode() {
+        val nested = buildTree(DEPTH, nestedTrace, IdCounter())
+        val compiled = CommandCompiler.compile(buildTree(DEPTH, compiledTrace, IdCounter()))
+
+        telemetry.addData("Status", "Press PLAY to run")
+        telemetry.addData("Compiled", compiled)
+        telemetry.update()
+        waitForStart()
+
+        telemetry.addData("Status", "Running")
+        telemetry.update()
+
+        // Same trace check first, then warm up and time each
+        nestedTrace.clear()
+        compiledTrace.clear()
+        runOnce(nested)
+        runOnce(compiled)
+        val identical = nestedTrace.contentEquals(compiledTrace)
+        val traceEvents = nestedTrace.size
+
+        // Same check with failing children; not timed, throwing allocates
+        nestedTrace.clear()
+        compiledTrace.clear()
+        runOnce(buildFailingTree(nestedTrace))
+        runOnce(CommandCompiler.compile(buildFailingTree(compiledTrace)))
+        val identicalWithErrors = nestedTrace.contentEquals(compiledTrace)
+
+        nestedTrace.recording = false
+        compiledTrace.recording = false
+        val nestedResult = measure(nested)
+        val compiledResult = measure(compiled)
+
+        while (opModeIsActive()) {
+            telemetry.addData("Tree", compiled)
+            telemetry.addData("Identical Trace", identical)
+            telemetry.addData("Identical Trace With Errors", identicalWithErrors)
+            telemetry.addData("Trace Events", traceEvents)
+            telemetry.addData("Nested (ns/tick)", "%.0f".format(nestedResult.nanosPerTick))
+            telemetry.addData("Compiled (ns/tick)", "%.0f".format(compiledResult.nanosPerTick))
+            telemetry.addData("Nested (allocs/run)", "%.1f".format(nestedResult.allocationsPerRun))
+            telemetry.addData("Compiled (allocs/run)", "%.1f".format(compiledResult.allocationsPerRun))
+            telemetry.update()
+            sleep(100)
+        }
+    }
+
+    private class Result(val nanosPerTick: Double, val allocationsPerRun: Double)
+
+    @Suppress("DEPRECATION")
+    private fun measure(command: Command): Result {
+        for (i in 0 until WARMUP_RUNS) runOnce(command)
+
+        android.os.Debug.resetThreadAllocCount()
+        android.os.Debug.startAllocCounting()
+        var ticks = 0L
+        val start = System.nanoTime()
+        for (i in 0 until TIMED_RUNS) ticks += runOnce(command)
+        val elapsed = System.nanoTime() - start
+        android.os.Debug.stopAllocCounting()
+        val allocations = android.os.Debug.getThreadAllocCount()
+
+        return Result(elapsed.toDouble() / ticks, allocations.toDouble() / TIMED_RUNS)
+    }
+
+    /**
+     * Run [command] to completion the way the scheduler does.
+     * @return Number of ticks it took
+     */
+    private fun runOnce(command: Command): Int {
+        command.initializeInternal()
+        var ticks = 0
+        do {
+            command.periodicInternal()
+            ticks++
+        } while (!command.isFinishedInternal())
+        command.endInternal(interrupted = false)
+        return ticks
+    }
+
+    private class IdCounter {
+        var next = 0
+    }
+
+    /**
+     * Each level: a parallel pair of subtrees, then a race between a subtree and a timeout.
+     */
+    private fun buildTree(depth: Int, trace: Trace, ids: IdCounter): Command {
+        if (depth == 0) {
+            val id = ids.next++
+            return CountCommand(id, 1 + id % 4, trace)
+        }
+        return SequentialCommandGroup(
+            ParallelCommandGroup(
+                buildTree(depth - 1, trace, ids),
+                buildTree(depth - 1, trace, ids),
+            ),
+            ParallelRaceGroup(
+                buildTree(depth - 1, trace, ids),
+                CountCommand(ids.next++, 2 + depth * 2, trace),
+            ),
+        )
+    }
+
+    /**
+     * Children failing in a sequence, next to a parallel branch, and in a race.
+     * Leaves out the error cases CompiledCommandGroup documents as different.
+     */
+    private fun buildFailingTree(trace: Trace): Command {
+        return SequentialCommandGroup(
+            ParallelCommandGroup(
+                SequentialCommandGroup(
+                    CountCommand(0, 2, trace),
+                    FailingCommand(1, FAIL_INITIALIZE, trace),
+                    CountCommand(2, 1, trace),
+                    FailingCommand(3, 2, trace),
+                    CountCommand(4, 3, trace),
+                ),
+                CountCommand(5, 4, trace),
+            ),
+            ParallelRaceGroup(
+                FailingCommand(6, 2, trace),
+                CountCommand(7, 5, trace),
+            ),
+            CountCommand(8, 1, trace),
+        )
+    }
+
+    /**
+     * Finishes after a fixed number of ticks and records its lifecycle in [trace].
+     */
+    private class CountCommand(
+        private val id: Int,
+        private val ticks: Int,
+        private val trace: Trace,
+    ) : Command() {
+        private var count = 0
+
+        override fun initialize() {
+            count = 0
+            trace.record(id * 4)
+        }
+
+        override fun periodic() {
+            count++
+        }
+
+        override fun isFinished(): Boolean = count >= ticks
+
+        override fun end(interrupted: Boolean) {
+            trace.record(id * 4 + if (interrupted) 2 else 1)
+        }
+    }
+
+    /**
+     * Records its lifecycle like CountCommand, then throws from initialize() if
+     * [failAt] is FAIL_INITIALIZE, or from the [failAt]th periodic().
+     */
+    private class FailingCommand(
+        private val id: Int,
+        private val failAt: Int,
+        private val trace: Trace,
+    ) : Command() {
+        private var count = 0
+
+        override fun initialize() {
+            count = 0
+            trace.record(id * 4)
+            if (failAt == FAIL_INITIALIZE) throw IllegalStateException("Benchmark failure")
+        }
+
+        override fun periodic() {
+            if (++count == failAt) throw IllegalStateException("Benchmark failure")
+        }
+
+        override fun end(interrupted: Boolean) {
+            trace.record(id * 4 + if (interrupted) 2 else 1)
+        }
+    }
+
+    /**
+     * Preallocated event log, so recording doesn't count as an allocation.
+     */
+    private class Trace {
+        private val events = IntArray(TRACE_CAPACITY)
+        var size = 0
+            private set
+        var recording = true
+
+        fun record(event: Int) {
+            if (recording && size < events.size) events[size++] = event
+        }
+
+        fun clear() {
+            size = 0
+            recording = true
+        }
+
+        fun contentEquals(other: Trace): Boolean {
+            if (size != other.size) return false
+            for (i in 0 until size) {
+                if (events[i] != other.events[i]) return false
+            }
+            return true
+        }
+    }
+
+    companion object {
+        private const val DEPTH = 5
+        private const val WARMUP_RUNS = 200
+        private const val TIMED_RUNS = 2000
+        private const val TRACE_CAPACITY = 4096
+        private const val FAIL_INITIALIZE = 0
+    }
+}
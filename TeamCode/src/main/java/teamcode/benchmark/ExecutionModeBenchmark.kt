@@ -0,0 +1,119 @@
+package teamcode.benchmark
+
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp
+import teamcode.robot.core.subsystem.Subsystem
+import teamcode.robot.core.utils.Timer
+import teamcode.robot.subsystems.ColorSensorSubsystem
+import teamcode.robot.subsystems.IntakeSubsystem
+import teamcode.robot.subsystems.KickerSubsystem
+import teamcode.robot.subsystems.MovementSubsystem
+import teamcode.robot.subsystems.ShooterSubsystem
+import teamcode.robot.subsystems.SpindexerSubsystem
+import teamcode.robot.subsystems.TurretSubsystem
+import teamcode.robot.subsystems.VisionSubsystem
+import teamcode.threading.ExecutionMode
+import teamcode.threading.ThreadedOpMode
+
+/**
+ * Runs the full subsystem set with no driver input and reports the cost of the
+ * selected execution mode, so the modes can be compared on the same robot:
+ *
+ * - Context switches per second across all threads of the app
+ * - CPU usage of the app process
+ * - Jitter: worst p99 period error and worst p99 wake-up lateness across subsystems
+ *
+ * Let each mode run for a minute, then compare the numbers. Per-subsystem
+ * histograms are shown in each subsystem's own telemetry namespace.
+ */
+abstract class ExecutionModeBenchmark : ThreadedOpMode() {
+
+    private val sampleTimer = Timer()
+    private var lastContextSwitches = 0L
+    private var lastCpuMillis = 0L
+
+    private var contextSwitchesPerSecond = 0.0
+    private var cpuPercent = 0.0
+    private var threadCount = 0
+    private var worstPeriodErrorMs = 0.0
+    private var worstLatenessMs = 0.0
+
+    override fun initOpMode() {
+        MovementSubsystem()
+        TurretSubsystem()
+        VisionSubsystem()
+        ShooterSubsystem()
+        KickerSubsystem()
+        SpindexerSubsystem()
+        IntakeSubsystem()
+        ColorSensorSubsystem()
+    }
+
+    override fun onStart() {
+        lastContextSwitches = ProcessStats.contextSwitches()
+        lastCpuMillis = ProcessStats.cpuTimeMillis()
+        sampleTimer.start()
+    }
+
+    override fun mainLoop() {
+        if (sampleTimer.hasElapsed(SAMPLE_SECONDS)) {
+            sample(sampleTimer.elapsedSeconds())
+            sampleTimer.start()
+        }
+
+        robotTelemetry.addData("Mode", executionMode.name)
+        robotTelemetry.addData("Threads", threadCount)
+        robotTelemetry.addData("Context Switches/s", "%.0f".format(contextSwitchesPerSecond))
+        robotTelemetry.addData("CPU (% of one core)", "%.1f".format(cpuPercent))
+        robotTelemetry.addData("Worst p99 Period Error (ms)", "%.2f".format(worstPeriodErrorMs))
+        robotTelemetry.addData("Worst p99 Lateness (ms)", "%.2f".format(worstLatenessMs))
+    }
+
+    private fun sample(elapsedSeconds: Double) {
+        val contextSwitches = ProcessStats.contextSwitches()
+        val cpuMillis = ProcessStats.cpuTimeMillis()
+
+        contextSwitchesPerSecond = (contextSwitches - lastContextSwitches) / elapsedSeconds
+        cpuPercent = (cpuMillis - lastCpuMillis) / (elapsedSeconds * 10.0)
+        threadCount = ProcessStats.threadCount()
+
+        lastContextSwitches = contextSwitches
+        lastCpuMillis = cpuMillis
+
+        var periodError = 0.0
+        var lateness = 0.0
+        for (thread in threadManager.getThreads()) {
+            if (thread !is Subsystem) continue
+            val timing = thread.loopTiming
+            val error = timing.period.percentile(99.0) / 1000.0 - thread.updateIntervalMs
+            periodError = maxOf(periodError, error)
+            lateness = maxOf(lateness, timing.lateness.percentile(99.0) / 1000.0)
+        }
+        worstPeriodErrorMs = periodError
+        worstLatenessMs = lateness
+    }
+
+    companion object {
+        private const val SAMPLE_SECONDS = 1.0
+    }
+}
+
+@TeleOp(name = "Benchmark: Thread per Subsystem", group = "Benchmark")
+class ThreadPerSubsystemBenchmark : ExecutionModeBenchmark() {
+    override val executionMode: ExecutionMode
+        get() = ExecutionMode.THREAD_PER_SUBSYSTEM
+}
+
+@TeleOp(name = "Benchmark: Cooperative Executive", group = "Benchmark")
+class CooperativeBenchmark : ExecutionModeBenchmark() {
+    override val executionMode: ExecutionMode
+        get() = ExecutionMode.COOPERATIVE
+}
+
+@TeleOp(name = "Benchmark: Cooperative Pool (2)", group = "Benchmark")
+class CooperativePoolBenchmark : ExecutionModeBenchmark() {
+    override val executionMode: ExecutionMode
+        get() = ExecutionMode.COOPERATIVE
+
+    override val executiveCount: Int
+        get() = 2
+}
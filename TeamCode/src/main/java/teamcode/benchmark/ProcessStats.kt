@@ -0,0 +1,50 @@
+package teamcode.benchmark
+
+import java.io.File
+
+/**
+ * Reads process-wide scheduling counters from /proc for benchmarking execution modes.
+ *
+ * - Context switches are summed over every thread of this process
+ *   (voluntary + involuntary, from /proc/self/task/<tid>/status)
+ * - CPU time is the process' total user + system time (android.os.Process)
+ *
+ * Reading /proc allocates and does file I/O, so only sample this from
+ * a low-rate loop such as the OpMode main loop, never from a control thread.
+ */
+object ProcessStats {
+
+    /**
+     * Sum of voluntary and involuntary context switches across all threads of this process.
+     * Threads that already exited are not counted.
+     * @return Total context switches, or -1 if /proc is not readable
+     */
+    fun contextSwitches(): Long {
+        val tasks = File("/proc/self/task").listFiles() ?: return -1
+        var total = 0L
+        for (task in tasks) {
+            try {
+                File(task, "status").forEachLine { line ->
+                    if (line.startsWith("voluntary_ctxt_switches") ||
+                        line.startsWith("nonvoluntary_ctxt_switches")
+                    ) {
+                        total += line.substringAfter(':').trim().toLongOrNull() ?: 0L
+                    }
+                }
+            } catch (e: Exception) {
+                // Thread exited while we were reading it
+            }
+        }
+        return total
+    }
+
+    /**
+     * Number of threads in this process.
+     */
+    fun threadCount(): Int = File("/proc/self/task").list()?.size ?: -1
+
+    /**
+     * CPU time used by this process so far, in milliseconds.
+     */
+    fun cpuTimeMillis(): Long = android.os.Process.getElapsedCpuTime()
+}
@@ -1,54 +1,58 @@
 package teamcode.commands
 
-import teamcode.robot.command.Command
-import teamcode.robot.command.SequentialCommandGroup
-import teamcode.robot.command.WaitCommand
-import teamcode.robot.command.WaitUntilCommand
-import teamcode.robot.core.utils.Timer
+import teamcode.robot.command.SuspendCommand
+import teamcode.robot.core.state.RobotState
+import teamcode.robot.core.state.RobotStateMachine
 import teamcode.robot.subsystems.KickerState
 import teamcode.robot.subsystems.KickerSubsystem
+import teamcode.robot.subsystems.ShooterSubsystem
 import teamcode.robot.subsystems.SpindexerState
 import teamcode.robot.subsystems.SpindexerSubsystem
 import teamcode.threading.RobotThread
 
-class kickerUp: Command(false){
-
-    private var kicker = current<KickerSubsystem>()
-    private var timer = Timer()
-
-    override fun initialize() {
-        kicker.kickerUp()
-        timer.start()
-    }
-
-    override fun isFinished(): Boolean {
-        return timer.hasElapsed(0.5)
-    }
-}
-
-class kickerDown: Command(false){
-
-    private var kicker = current<KickerSubsystem>()
-
-    override fun initialize() {
+/**
+ * Shoot command - wait for the flywheel to be at speed, then kicker up until the
+ * ball leaves (the flywheel dips) and back down.
+ * Does nothing unless the spindexer is idle when it starts, so one instance
+ * can be built up front and scheduled on every button press.
+ */
+class Shoot : SuspendCommand(false) {
+
+    private val kicker = current<KickerSubsystem>()
+    private val spindexer = RobotThread.current<SpindexerSubsystem>()
+    private val shooter = RobotThread.current<ShooterSubsystem>()
+
+    /**
+     * Whether the last run actually kicked.
+     */
+    var fired: Boolean = false
+        private set
+
+    private var shots = 0L
+    private var deadline = 0L
+
+    // Conditions are built once; a lambda written inline in body() is a new object every run
+    private val readyOrStopped = { shooter.isReady || !RobotStateMachine.isState(RobotState.SHOOTING) }
+    private val shotOrTimeout = { shooter.pacer.shots != shots || System.nanoTime() >= deadline }
+    private val kickerIdle = { kicker.currentState === KickerState.IDLE }
+
+    override suspend fun body() {
+        fired = false
+        if (spindexer.currentState !== SpindexerState.IDLE) return
+
+        // Fire as soon as the wheel is at speed; give up if we stop shooting first
+        waitUntil(readyOrStopped)
+        shots = shooter.pacer.shots
+        if (!kicker.kickerUp()) return
+        fired = true
+        deadline = System.nanoTime() + KICK_MS * 1_000_000L
+        waitUntil(shotOrTimeout)
         kicker.kickerDown()
+        waitUntil(kickerIdle)
     }
 
-    override fun isFinished(): Boolean {
-        return kicker.currentState === KickerState.IDLE
+    companion object {
+        /** Longest the kicker stays up if no shot is detected */
+        const val KICK_MS = 500L
     }
 }
-
-/**
- * Shoot command - triggers the kicker twice with a delay.
- * This command properly schedules on the command scheduler.
- */
-fun Shoot(): SequentialCommandGroup {
-    if (RobotThread.current<SpindexerSubsystem>().currentState!== SpindexerState.IDLE){
-        return SequentialCommandGroup()
-    }
-    return SequentialCommandGroup(
-        kickerUp(),
-        kickerDown()
-    )
-}
\ No newline at end of file
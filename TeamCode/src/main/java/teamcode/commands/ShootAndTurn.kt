@@ -1,25 +1,23 @@
 package teamcode.commands
 
-import teamcode.robot.command.Command
-import teamcode.robot.command.SequentialCommandGroup
-import teamcode.robot.command.WaitCommand
-import teamcode.commands.Shoot
-import teamcode.robot.subsystems.KickerState
-import teamcode.robot.subsystems.KickerSubsystem
-import teamcode.robot.subsystems.ShooterState
-import teamcode.robot.subsystems.ShooterSubsystem
+import teamcode.robot.command.SuspendCommand
 import teamcode.robot.subsystems.SpindexerState
 import teamcode.robot.subsystems.SpindexerSubsystem
-import teamcode.threading.RobotThread
 
-fun ShootAndTurn(): SequentialCommandGroup {
-    if (RobotThread.current<SpindexerSubsystem>().currentState!==SpindexerState.IDLE ||
-        RobotThread.current<ShooterSubsystem>().currentState!== ShooterState.SHOOTING_READY
-    ){
-        return SequentialCommandGroup()
+/**
+ * Shoot as soon as the flywheel is at speed, then advance the spindexer one slot.
+ * Does nothing unless the spindexer is idle when it starts, so one instance can
+ * be reused for every press.
+ */
+class ShootAndTurn : SuspendCommand(false) {
+
+    private val shoot = uses(Shoot())
+    private val spindexer = current<SpindexerSubsystem>()
+
+    override suspend fun body() {
+        if (spindexer.currentState !== SpindexerState.IDLE) return
+
+        await(shoot)
+        if (shoot.fired) spindexer.changeTargetPositionByOffset(1)
     }
-    return SequentialCommandGroup(
-        Shoot(),
-        SpindexerSpin(1),
-    )
-}
\ No newline at end of file
+}
@@ -0,0 +1,56 @@
+package teamcode.commands
+
+import teamcode.robot.command.SuspendCommand
+import teamcode.robot.core.state.RobotState
+import teamcode.robot.core.state.RobotStateMachine
+import teamcode.robot.subsystems.KickerState
+import teamcode.robot.subsystems.KickerSubsystem
+import teamcode.robot.subsystems.ShooterSubsystem
+import teamcode.robot.subsystems.SpindexerState
+import teamcode.robot.subsystems.SpindexerSubsystem
+import teamcode.threading.RobotThread
+
+/**
+ * Shoot [balls] in a row as fast as the flywheel allows.
+ *
+ * Each kick is released the moment the flywheel is back at speed and the
+ * spindexer has indexed the next ball; the kicker comes down as soon as the
+ * shot is seen in the flywheel velocity (ShotPacer). The shooter's telemetry
+ * reports the volley's balls per second and each shot's recovery time.
+ *
+ * Stops early if the robot leaves SHOOTING.
+ */
+class ShootVolley(private val balls: Int = 3) : SuspendCommand(false) {
+
+    private val kicker = current<KickerSubsystem>()
+    private val spindexer = current<SpindexerSubsystem>()
+    private val shooter = RobotThread.current<ShooterSubsystem>()
+
+    private var shots = 0L
+    private var deadline = 0L
+
+    // Conditions are built once; a lambda written inline in body() is a new object every kick
+    private val readyOrStopped = {
+        !RobotStateMachine.isState(RobotState.SHOOTING) ||
+            (shooter.isReady && spindexer.currentState === SpindexerState.IDLE &&
+                kicker.currentState === KickerState.IDLE)
+    }
+    private val shotOrTimeout = { shooter.pacer.shots != shots || System.nanoTime() >= deadline }
+    private val kickerIdle = { kicker.currentState === KickerState.IDLE }
+
+    override suspend fun body() {
+        for (ball in 0 until balls) {
+            waitUntil(readyOrStopped)
+
+            shots = shooter.pacer.shots
+            if (!kicker.kickerUp()) return
+            deadline = System.nanoTime() + Shoot.KICK_MS * 1_000_000L
+            waitUntil(shotOrTimeout)
+            kicker.kickerDown()
+
+            // The kicker has to be clear before the spindexer turns
+            waitUntil(kickerIdle)
+            spindexer.changeTargetPositionByOffset(1)
+        }
+    }
+}
@@ -1,14 +1,15 @@
 package teamcode.commands
 
 import teamcode.robot.command.Command
+import teamcode.robot.command.CommandAffinity
 import teamcode.robot.subsystems.SpindexerState
 import teamcode.robot.subsystems.SpindexerSubsystem
 
 /**
  * Command to spin the spindexer by a position offset.
- * Calls subsystem methods directly (cross-thread).
+ * Runs on the spindexer thread, so the new target is used by the same periodic().
  */
-class SpindexerSpin(private val offset: Int = 1): Command(false) {
+class SpindexerSpin(private val offset: Int = 1): Command(false, CommandAffinity.SUBSYSTEM) {
 
     // Get subsystem reference - automatically adds to requirements
     private val spindexer = current<SpindexerSubsystem>()
@@ -27,7 +28,7 @@ class SpindexerSpin(private val offset: Int = 1): Command(false) {
     }
 }
 
-class SpindexerSpinWait(private val offset: Int = 1): Command(false) {
+class SpindexerSpinWait(private val offset: Int = 1): Command(false, CommandAffinity.SUBSYSTEM) {
 
     // Get subsystem reference - automatically adds to requirements
     private val spindexer = current<SpindexerSubsystem>()
@@ -1,14 +1,15 @@
 package teamcode.commands
 
 import teamcode.robot.command.Command
+import teamcode.robot.command.CommandAffinity
 import teamcode.robot.subsystems.KickerState
 import teamcode.robot.subsystems.KickerSubsystem
 
 /**
  * Command to trigger the kicker mechanism.
- * Calls subsystem methods directly (cross-thread).
+ * Runs on the kicker thread, just before its periodic().
  */
-class TriggerKicker: Command(false) {
+class TriggerKicker: Command(false, CommandAffinity.SUBSYSTEM) {
     
     // Get subsystem reference - automatically adds to requirements
     private val kicker = current<KickerSubsystem>()
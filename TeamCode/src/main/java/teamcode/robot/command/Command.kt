@@ -2,7 +2,10 @@ package teamcode.robot.command
 
 import teamcode.robot.core.subsystem.Subsystem
 import teamcode.robot.core.utils.Timer
+import teamcode.telemetry.DataLogger
+import teamcode.telemetry.Tracer
 import teamcode.threading.RobotThread
+import kotlin.concurrent.Volatile
 
 /**
  * Base class for all robot commands.
@@ -16,6 +19,7 @@ import teamcode.threading.RobotThread
  * - Subsystem method calls happen directly (cross-thread)
  * - Subsystems must ensure thread-safety for public methods
  * - Command lifecycle is managed by CommandScheduler
+ * - Pass CommandAffinity.SUBSYSTEM to run on the required subsystem's thread instead
  * 
  * Example:
  * ```
@@ -41,7 +45,13 @@ import teamcode.threading.RobotThread
  * }
  * ```
  */
-abstract class Command(interruptibleInput: Boolean=true) {
+abstract class Command(
+    interruptibleInput: Boolean=true,
+    /**
+     * Which thread runs this command. See CommandAffinity.
+     */
+    val affinity: CommandAffinity = CommandAffinity.SCHEDULER
+) {
 
     
     /**
@@ -64,12 +74,73 @@ abstract class Command(interruptibleInput: Boolean=true) {
     var interruptible: Boolean = true
 
     var finishFn: Boolean =false
+
+    /**
+     * Whether the CommandScheduler is currently running this command.
+     * Set on the scheduler thread, readable from any thread.
+     */
+    @Volatile
+    var isScheduled: Boolean = false
+        internal set
+
+    /**
+     * When schedule() was last called for this command (System.nanoTime()).
+     * Used to measure schedule-to-initialize latency.
+     */
+    @Volatile
+    internal var scheduledAtNanos: Long = 0L
     
     /**
-     * Internal tracking of which subsystems this command requires.
-     * Automatically populated when current<T>() is called.
+     * Which subsystems this command requires, one Subsystem.requirementBit each.
+     * Automatically populated when current<T>() is called; groups OR their children's masks.
+     */
+    internal var requirementMask: Long = 0L
+
+    /**
+     * The required subsystem when there is exactly one, otherwise null.
+     */
+    internal var requiredSubsystem: Subsystem? = null
+        private set
+
+    /**
+     * Set by the scheduler when this command runs on its subsystem's thread.
+     */
+    @Volatile
+    internal var boundToSubsystem: Boolean = false
+
+    /**
+     * Set by the scheduler to ask the subsystem thread to interrupt this command.
+     */
+    @Volatile
+    internal var cancelRequested: Boolean = false
+
+    /**
+     * Incremented by the scheduler every time this command is bound to its subsystem,
+     * so a reused instance's earlier run can't be mistaken for the current one.
+     */
+    @Volatile
+    internal var bindGeneration: Int = 0
+
+    /**
+     * Set by the subsystem thread to the bindGeneration of the run that ended.
+     * The scheduler reaps the command once it matches bindGeneration.
+     */
+    @Volatile
+    internal var doneGeneration: Int = 0
+
+    /** Whether the current bound run has ended on the subsystem thread */
+    internal val boundDone: Boolean
+        get() = doneGeneration == bindGeneration
+
+    /**
+     * Name of this command in Tracer timelines, looked up once.
+     */
+    internal val traceName: String = javaClass.simpleName.ifEmpty { javaClass.name }
+
+    /**
+     * DataLogger channel for this command's lifecycle events.
      */
-    internal val requirements: MutableSet<Class<out Subsystem>> = mutableSetOf()
+    private val logChannel: Int = DataLogger.channel("Command/$traceName")
 
     init {
             interruptible = interruptibleInput
@@ -103,17 +174,34 @@ abstract class Command(interruptibleInput: Boolean=true) {
      * @return Direct reference to the subsystem
      */
     internal inline fun <reified T : Subsystem> current(): T {
-        val subsystemClass = T::class.java
-        
         // Get real subsystem instance
         val subsystem = RobotThread.current<T>()
         
         // Track this subsystem as a requirement
-        requirements.add(subsystemClass)
+        addRequirement(subsystem)
         
         return subsystem
     }
 
+    internal fun addRequirement(subsystem: Subsystem) {
+        val first = requirementMask == 0L
+        requirementMask = requirementMask or subsystem.requirementBit
+        requiredSubsystem = if (java.lang.Long.bitCount(requirementMask) == 1) {
+            if (first) subsystem else requiredSubsystem
+        } else {
+            null
+        }
+    }
+
+    /**
+     * Add a child command's requirements to this one (used by command groups).
+     */
+    internal fun addRequirements(child: Command) {
+        val single = requiredSubsystem ?: child.requiredSubsystem
+        requirementMask = requirementMask or child.requirementMask
+        requiredSubsystem = if (java.lang.Long.bitCount(requirementMask) == 1) single else null
+    }
+
     protected fun finishCommand(){
         finishFn=true
     }
@@ -146,9 +234,35 @@ abstract class Command(interruptibleInput: Boolean=true) {
      */
     open fun isFinished(): Boolean = false
 
+    /**
+     * Re-arm and initialize this command. Clears finishCommand() from the previous run
+     * so the same instance can be scheduled again.
+     */
+    internal fun initializeInternal() {
+        DataLogger.log(logChannel, CommandEvent.INITIALIZE)
+        Tracer.trace(traceName, Tracer.COMMAND_INIT) {
+            finishFn = false
+            initialize()
+        }
+    }
+
+    internal fun periodicInternal() {
+        Tracer.trace(traceName, Tracer.COMMAND_PERIODIC) { periodic() }
+    }
+
+    internal fun endInternal(interrupted: Boolean) {
+        DataLogger.log(logChannel, if (interrupted) CommandEvent.INTERRUPT else CommandEvent.END)
+        Tracer.trace(traceName, Tracer.COMMAND_END) { end(interrupted) }
+    }
+
     internal fun isFinishedInternal(): Boolean{
         val result = isFinished()
         return  (result || finishFn)
     }
+
+    /**
+     * Lifecycle events logged to DataLogger.
+     */
+    private enum class CommandEvent { INITIALIZE, END, INTERRUPT }
 }
 
@@ -0,0 +1,18 @@
+package teamcode.robot.command
+
+/**
+ * Which thread runs a command's initialize/periodic/end.
+ */
+enum class CommandAffinity {
+    /** The CommandScheduler thread (default). */
+    SCHEDULER,
+
+    /**
+     * The thread of the one subsystem the command requires, inside its runLoop()
+     * just before periodic(). Subsystem state the command sets is then seen by
+     * the same periodic() call, with no cross-thread hop.
+     *
+     * Commands that require no subsystem or more than one run on the scheduler instead.
+     */
+    SUBSYSTEM,
+}
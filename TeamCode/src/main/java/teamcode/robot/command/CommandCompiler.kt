@@ -0,0 +1,107 @@
+package teamcode.robot.command
+
+/**
+ * Flattens nested command groups into a CompiledCommandGroup.
+ *
+ * Only the exact group classes are flattened: SequentialCommandGroup,
+ * ParallelCommandGroup and ParallelRaceGroup. Subclasses (e.g. Shoot, which
+ * checks a guard in initialize()) and every other command stay leaves, run
+ * through their own initialize()/periodic()/end().
+ *
+ * Usage:
+ * ```
+ * private val auto = SequentialCommandGroup(
+ *     DriveForward(1.0),
+ *     ParallelCommandGroup(SpinUp(), WaitCommand(0.5)),
+ *     Shoot()
+ * ).compiled()
+ * ```
+ */
+object CommandCompiler {
+
+    /**
+     * Compile [command] into a flat table.
+     * @return A CompiledCommandGroup, or [command] itself if it isn't a group
+     */
+    @JvmStatic
+    fun compile(command: Command): Command {
+        if (kindOf(command) == CompiledCommandGroup.LEAF) return command
+        val builder = Builder()
+        builder.add(command, -1)
+        return builder.build(command)
+    }
+
+    private fun kindOf(command: Command): Int = when (command.javaClass) {
+        SequentialCommandGroup::class.java -> CompiledCommandGroup.SEQUENCE
+        ParallelCommandGroup::class.java -> CompiledCommandGroup.PARALLEL
+        ParallelRaceGroup::class.java -> CompiledCommandGroup.RACE
+        else -> CompiledCommandGroup.LEAF
+    }
+
+    private fun childrenOf(command: Command): Array<Command> = when (command) {
+        is SequentialCommandGroup -> command.commands
+        is ParallelCommandGroup -> command.commands
+        is ParallelRaceGroup -> command.commands
+        else -> emptyArray()
+    }
+
+    private class Builder {
+        val kind = ArrayList<Int>()
+        val leaves = ArrayList<Command?>()
+        val parent = ArrayList<Int>()
+        val subtreeEnd = ArrayList<Int>()
+        val next = ArrayList<Int>()
+        val childStart = ArrayList<Int>()
+        val childCount = ArrayList<Int>()
+        val children = ArrayList<Int>()
+
+        /**
+         * Add [command] and its subtree in pre-order.
+         * @return The node index of [command]
+         */
+        fun add(command: Command, parentNode: Int): Int {
+            val node = kind.size
+            val nodeKind = kindOf(command)
+            kind.add(nodeKind)
+            leaves.add(if (nodeKind == CompiledCommandGroup.LEAF) command else null)
+            parent.add(parentNode)
+            subtreeEnd.add(0)
+            next.add(-1)
+            childStart.add(0)
+            childCount.add(0)
+
+            if (nodeKind != CompiledCommandGroup.LEAF) {
+                val childCommands = childrenOf(command)
+                val childNodes = IntArray(childCommands.size) { add(childCommands[it], node) }
+                if (nodeKind == CompiledCommandGroup.SEQUENCE) {
+                    for (i in 0 until childNodes.size - 1) {
+                        next[childNodes[i]] = childNodes[i + 1]
+                    }
+                }
+                childStart[node] = children.size
+                childCount[node] = childNodes.size
+                for (child in childNodes) children.add(child)
+            }
+
+            subtreeEnd[node] = kind.size
+            return node
+        }
+
+        fun build(source: Command) = CompiledCommandGroup(
+            source = source,
+            kind = kind.toIntArray(),
+            leaves = leaves.toTypedArray(),
+            parent = parent.toIntArray(),
+            subtreeEnd = subtreeEnd.toIntArray(),
+            next = next.toIntArray(),
+            childStart = childStart.toIntArray(),
+            childCount = childCount.toIntArray(),
+            children = children.toIntArray(),
+        )
+    }
+}
+
+/**
+ * Compile this command's group tree into a flat table. See CommandCompiler.
+ */
+fun Command.compiled(): Command = CommandCompiler.compile(this)
@@ -1,12 +1,18 @@
 package teamcode.robot.command
 
 import teamcode.robot.core.subsystem.Subsystem
+import teamcode.telemetry.LazyChannel
+import teamcode.threading.LoopHistogram
 import teamcode.threading.RobotThread
 import kotlin.concurrent.Volatile
 
 /**
  * Command scheduler thread that manages command lifecycle.
  * 
+ * Commands with CommandAffinity.SUBSYSTEM that require exactly one subsystem are
+ * handed to that subsystem's thread instead; the scheduler still owns their
+ * requirements and reaps them once they end.
+ * 
  * The scheduler runs on its own thread and:
  * - Schedules commands and manages their lifecycle (initialize, execute, end)
  * - Enforces one command per subsystem rule
@@ -35,15 +41,74 @@ import kotlin.concurrent.Volatile
 class CommandScheduler : RobotThread("CommandScheduler", 20) {
     
     /**
-     * List of currently active commands.
+     * Currently active commands in scheduling order, packed into the first activeCount slots.
+     * Removal during execution only clears the slot; compactActive() packs it afterwards,
+     * so the steady-state loop never allocates.
+     */
+    private var activeCommands = arrayOfNulls<Command>(INITIAL_CAPACITY)
+
+    /**
+     * Number of used slots in activeCommands (may include cleared slots until compacted).
+     */
+    private var activeSlots = 0
+
+    /**
+     * Number of active commands. Readable from any thread.
+     */
+    @Volatile
+    private var activeCount = 0
+
+    /**
+     * Set when a slot was cleared and activeCommands needs compacting.
+     */
+    private var needsCompaction = false
+
+    /**
+     * Set by cancelAll(), handled on the scheduler thread.
+     */
+    @Volatile
+    private var cancelAllRequested = false
+
+    /**
+     * Incremented when the active set changes, so telemetry text is rebuilt only then.
+     */
+    private var activeVersion = 0
+    private var telemetryVersion = -1
+    private var commandsText = ""
+
+    /**
+     * Wake the scheduler as soon as schedule() or cancel() queues work, instead of
+     * waiting for the next 20 ms tick. Active commands keep their 20 ms cadence either way.
+     * Turn off to compare schedule latency with the old behavior.
+     */
+    @Volatile
+    var wakeOnSchedule: Boolean = true
+
+    /**
+     * Time from schedule() to initialize(), in the scheduler's telemetry.
      */
-    private val activeCommands = mutableListOf<Command>()
+    val scheduleLatency = LoopHistogram()
+    private val latencyChannel = LazyChannel("Schedule Latency (ms)", quiet = true) { scheduleLatency.summary() }
+
+    /**
+     * Count allocations made by the scheduler loop (excluding telemetry) and show them in telemetry.
+     * Uses android.os.Debug allocation counting, which slows allocation down, so only enable it to check.
+     */
+    @Volatile
+    var measureAllocations: Boolean = false
+    private var countingAllocations = false
+    private var loopAllocations = 0
     
     /**
-     * Map of subsystems to the command currently using them.
+     * Command currently using each subsystem, indexed by Subsystem.subsystemIndex.
      * Used for conflict detection and resolution.
      */
-    private val subsystemCommands = mutableMapOf<Class<out Subsystem>, Command>()
+    private val subsystemCommands = arrayOfNulls<Command>(Subsystem.MAX_SUBSYSTEMS)
+
+    /**
+     * Bits of all subsystems currently used by a command.
+     */
+    private var busyMask = 0L
     
     /**
      * Commands pending scheduling (thread-safe queue).
@@ -54,6 +119,12 @@ class CommandScheduler : RobotThread("CommandScheduler", 20) {
      * Commands pending cancellation (thread-safe queue).
      */
     private val pendingCancellations = java.util.concurrent.ConcurrentLinkedQueue<Command>()
+
+    /**
+     * Commands waiting for a cancelled bound command to end on its subsystem thread
+     * before they can take its subsystems. Scheduler thread only.
+     */
+    private val waitingCommands = ArrayDeque<Command>()
     
     /**
      * Schedule a command to run.
@@ -68,7 +139,9 @@ class CommandScheduler : RobotThread("CommandScheduler", 20) {
      * @param command The command to schedule
      */
     fun schedule(command: Command) {
+        command.scheduledAtNanos = System.nanoTime()
         pendingCommands.offer(command)
+        if (wakeOnSchedule) wake()
     }
     
     /**
@@ -79,6 +152,7 @@ class CommandScheduler : RobotThread("CommandScheduler", 20) {
      */
     fun cancel(command: Command) {
         pendingCancellations.offer(command)
+        if (wakeOnSchedule) wake()
     }
     
     /**
@@ -86,33 +160,73 @@ class CommandScheduler : RobotThread("CommandScheduler", 20) {
      * Thread-safe - can be called from any thread.
      */
     fun cancelAll() {
-        synchronized(activeCommands) {
-            activeCommands.toList().forEach { cancel(it) }
-        }
+        cancelAllRequested = true
+        if (wakeOnSchedule) wake()
     }
     
     /**
      * Main scheduler loop.
      * Executes on scheduler thread.
+     * 
+     * Wake-ups from schedule()/cancel() only process the queues, so newly scheduled
+     * commands initialize immediately while active commands still run every 20 ms.
      */
     override fun runLoop() {
+        val allocationsBefore = startAllocationCount()
+
+        // Reap bound commands every iteration, so a reused one can be scheduled again at once
+        reapBoundCommands()
+
         // Process pending cancellations first
         processPendingCancellations()
         
         // Process pending command schedules
         processPendingSchedules()
         
-        // Execute all active commands
-        executeActiveCommands()
+        // Execute all active commands (timer ticks only)
+        if (!isWakeIteration) {
+            executeActiveCommands()
+        }
+
+        if (countingAllocations) {
+            loopAllocations = android.os.Debug.getThreadAllocCount() - allocationsBefore
+        }
         
         // Update telemetry
         updateSchedulerTelemetry()
     }
+
+    /**
+     * Start or stop allocation counting to follow measureAllocations.
+     * @return This thread's allocation count so far
+     */
+    @Suppress("DEPRECATION")
+    private fun startAllocationCount(): Int {
+        if (measureAllocations != countingAllocations) {
+            countingAllocations = measureAllocations
+            if (countingAllocations) {
+                android.os.Debug.resetThreadAllocCount()
+                android.os.Debug.startAllocCounting()
+            } else {
+                android.os.Debug.stopAllocCounting()
+            }
+        }
+        return if (countingAllocations) android.os.Debug.getThreadAllocCount() else 0
+    }
     
     /**
      * Process commands pending cancellation.
      */
     private fun processPendingCancellations() {
+        if (cancelAllRequested) {
+            cancelAllRequested = false
+            waitingCommands.clear()
+            for (i in 0 until activeSlots) {
+                activeCommands[i]?.let { cancelCommandInternal(it) }
+            }
+            compactActive()
+        }
+
         while (true) {
             val command = pendingCancellations.poll() ?: break
             cancelCommandInternal(command)
@@ -123,6 +237,11 @@ class CommandScheduler : RobotThread("CommandScheduler", 20) {
      * Process commands pending scheduling.
      */
     private fun processPendingSchedules() {
+        // Retry each waiting command once; it is queued again if still blocked
+        repeat(waitingCommands.size) {
+            scheduleCommandInternal(waitingCommands.removeFirst())
+        }
+
         while (true) {
             val command = pendingCommands.poll() ?: break
             scheduleCommandInternal(command)
@@ -135,50 +254,75 @@ class CommandScheduler : RobotThread("CommandScheduler", 20) {
      */
     private fun scheduleCommandInternal(command: Command): Boolean {
         try {
-            // Get command's requirements
-            val requirements = command.requirements
-            
-            // Check for non-interruptible conflicts
-            val nonInterruptibleConflicts = mutableListOf<Command>()
-            for (subsystemClass in requirements) {
-                val existingCommand = subsystemCommands[subsystemClass]
-                if (existingCommand != null && !existingCommand.interruptible) {
-                    nonInterruptibleConflicts.add(existingCommand)
+            // Re-scheduling an active command is a no-op, so a reused instance bound to a
+            // held button keeps running instead of restarting every press
+            if (command.isScheduled && command.boundToSubsystem && command.boundDone) {
+                // Ended on its subsystem since the last reap
+                removeActive(command)
+                releaseRequirements(command)
+            }
+            if (command.isScheduled) {
+                // Scheduled again while its cancel is pending on the subsystem thread: run
+                // it again there, which ends the cancelled run first
+                if (command.boundToSubsystem && command.cancelRequested) {
+                    command.requiredSubsystem?.let { bindToSubsystem(command, it) }
                 }
+                return true
             }
-            
-            // If any non-interruptible conflicts exist, cannot schedule
-            if (nonInterruptibleConflicts.isNotEmpty()) {
-                System.err.println(
-                    "Cannot schedule ${command.javaClass.simpleName}: " +
-                    "Blocked by non-interruptible command(s): " +
-                    nonInterruptibleConflicts.joinToString { it.javaClass.simpleName }
-                )
-                return false
+            if (command in waitingCommands) {
+                return true
             }
-            
-            // Cancel any conflicting interruptible commands
-            val conflictingCommands = mutableSetOf<Command>()
-            for (subsystemClass in requirements) {
-                val existingCommand = subsystemCommands[subsystemClass]
-                if (existingCommand != null) {
-                    conflictingCommands.add(existingCommand)
+
+            val conflicts = busyMask and command.requirementMask
+
+            if (conflicts != 0L) {
+                // Check for non-interruptible conflicts (ones already being cancelled don't block)
+                var bits = conflicts
+                while (bits != 0L) {
+                    val existingCommand = subsystemCommands[java.lang.Long.numberOfTrailingZeros(bits)]
+                    if (existingCommand != null && !existingCommand.interruptible && !existingCommand.cancelRequested) {
+                        reportBlocked(command, conflicts)
+                        return false
+                    }
+                    bits = bits and (bits - 1)
+                }
+
+                // Cancel all conflicting commands (all are interruptible at this point).
+                // Cancelling is idempotent, so a command holding several bits is fine.
+                bits = conflicts
+                while (bits != 0L) {
+                    subsystemCommands[java.lang.Long.numberOfTrailingZeros(bits)]?.let { cancelCommandInternal(it) }
+                    bits = bits and (bits - 1)
+                }
+
+                // Cancelled bound commands keep their subsystems until their thread has
+                // ended them, so nothing else touches those subsystems meanwhile
+                if (!canTakeOver(command, busyMask and command.requirementMask)) {
+                    waitingCommands.addLast(command)
+                    return true
                 }
             }
             
-            // Cancel all conflicting commands (all are interruptible at this point)
-            conflictingCommands.forEach { cancelCommandInternal(it) }
-            
+            scheduleLatency.record(System.nanoTime() - command.scheduledAtNanos)
+
+            // Hand commands with subsystem affinity over to their subsystem's thread
+            val subsystem = command.requiredSubsystem
+            if (command.affinity == CommandAffinity.SUBSYSTEM && subsystem != null) {
+                addActive(command)
+                claimRequirements(command)
+                bindToSubsystem(command, subsystem)
+                return true
+            }
+            command.boundToSubsystem = false
+
             // Initialize the command
-            command.initialize()
+            command.initializeInternal()
             
             // Add to active commands
-            activeCommands.add(command)
+            addActive(command)
             
             // Update subsystem mappings
-            for (subsystemClass in requirements) {
-                subsystemCommands[subsystemClass] = command
-            }
+            claimRequirements(command)
             
             return true
             
@@ -188,67 +332,206 @@ class CommandScheduler : RobotThread("CommandScheduler", 20) {
             return false
         }
     }
+
+    /**
+     * Start a new bound run of [command] on [subsystem]'s thread.
+     */
+    private fun bindToSubsystem(command: Command, subsystem: Subsystem) {
+        command.cancelRequested = false
+        command.bindGeneration++
+        command.boundToSubsystem = true
+        subsystem.bindCommand(command)
+    }
+
+    /**
+     * Whether [command] can take the subsystems in [held] from the cancelled bound
+     * commands still ending on them. Only a command bound to the same subsystem can,
+     * since that thread ends the old run before starting the new one.
+     */
+    private fun canTakeOver(command: Command, held: Long): Boolean {
+        if (held == 0L) return true
+        val subsystem = command.requiredSubsystem
+        if (command.affinity != CommandAffinity.SUBSYSTEM || subsystem == null) return false
+        var bits = held
+        while (bits != 0L) {
+            val holder = subsystemCommands[java.lang.Long.numberOfTrailingZeros(bits)]
+            if (holder != null && holder.requiredSubsystem !== subsystem) return false
+            bits = bits and (bits - 1)
+        }
+        return true
+    }
+
+    /**
+     * Log which non-interruptible commands blocked [command]. Only runs on failure.
+     */
+    private fun reportBlocked(command: Command, conflicts: Long) {
+        val blockers = mutableSetOf<Command>()
+        var bits = conflicts
+        while (bits != 0L) {
+            val existingCommand = subsystemCommands[java.lang.Long.numberOfTrailingZeros(bits)]
+            if (existingCommand != null && !existingCommand.interruptible && !existingCommand.cancelRequested) {
+                blockers.add(existingCommand)
+            }
+            bits = bits and (bits - 1)
+        }
+        System.err.println(
+            "Cannot schedule ${command.javaClass.simpleName}: " +
+            "Blocked by non-interruptible command(s): " +
+            blockers.joinToString { it.javaClass.simpleName }
+        )
+    }
+
+    /**
+     * Mark every subsystem [command] requires as used by it.
+     */
+    private fun claimRequirements(command: Command) {
+        var bits = command.requirementMask
+        while (bits != 0L) {
+            subsystemCommands[java.lang.Long.numberOfTrailingZeros(bits)] = command
+            bits = bits and (bits - 1)
+        }
+        busyMask = busyMask or command.requirementMask
+    }
+
+    /**
+     * Free every subsystem still held by [command].
+     */
+    private fun releaseRequirements(command: Command) {
+        var bits = command.requirementMask and busyMask
+        while (bits != 0L) {
+            val index = java.lang.Long.numberOfTrailingZeros(bits)
+            if (subsystemCommands[index] === command) {
+                subsystemCommands[index] = null
+                busyMask = busyMask and (1L shl index).inv()
+            }
+            bits = bits and (bits - 1)
+        }
+    }
     
     /**
      * Cancel a command (runs on scheduler thread).
      */
     private fun cancelCommandInternal(command: Command) {
-        if (!activeCommands.contains(command)) {
+        if (!command.isScheduled) {
+            waitingCommands.remove(command)
+            return
+        }
+
+        if (command.boundToSubsystem) {
+            // The subsystem thread calls end(interrupted = true) on its next iteration.
+            // It keeps its requirements until then; reapBoundCommands() releases them.
+            command.cancelRequested = true
+            command.requiredSubsystem?.wake()
             return
         }
         
         try {
             // Call end with interrupted = true
-            command.end(interrupted = true)
+            command.endInternal(interrupted = true)
         } catch (e: Exception) {
             System.err.println("Error ending command: ${e.message}")
             e.printStackTrace()
         } finally {
             // Remove from active commands
-            activeCommands.remove(command)
+            removeActive(command)
             
             // Remove from subsystem mappings
-            val requirements = command.requirements
-            for (subsystemClass in requirements) {
-                if (subsystemCommands[subsystemClass] == command) {
-                    subsystemCommands.remove(subsystemClass)
-                }
+            releaseRequirements(command)
+        }
+    }
+
+    /**
+     * Append [command] to the active commands, growing the array if it is full (rare).
+     */
+    private fun addActive(command: Command) {
+        if (needsCompaction) compactActive()
+        if (activeSlots == activeCommands.size) {
+            activeCommands = activeCommands.copyOf(activeCommands.size * 2)
+        }
+        activeCommands[activeSlots++] = command
+        command.isScheduled = true
+        activeCount++
+        activeVersion++
+    }
+
+    /**
+     * Clear [command]'s slot. Safe while executeActiveCommands() is iterating.
+     */
+    private fun removeActive(command: Command) {
+        for (i in 0 until activeSlots) {
+            if (activeCommands[i] === command) {
+                activeCommands[i] = null
+                needsCompaction = true
+                command.isScheduled = false
+                activeCount--
+                activeVersion++
+                return
             }
         }
     }
+
+    /**
+     * Pack the active commands into the front of the array, keeping their order.
+     */
+    private fun compactActive() {
+        if (!needsCompaction) return
+        var write = 0
+        for (read in 0 until activeSlots) {
+            val command = activeCommands[read] ?: continue
+            activeCommands[write++] = command
+        }
+        for (i in write until activeSlots) {
+            activeCommands[i] = null
+        }
+        activeSlots = write
+        needsCompaction = false
+    }
     
+    /**
+     * Remove bound commands whose current run has ended on their subsystem thread.
+     */
+    private fun reapBoundCommands() {
+        for (i in 0 until activeSlots) {
+            val command = activeCommands[i] ?: continue
+            if (command.boundToSubsystem && command.boundDone) {
+                removeActive(command)
+                releaseRequirements(command)
+            }
+        }
+    }
+
     /**
      * Execute all active commands.
      */
     private fun executeActiveCommands() {
-        // Create a copy to avoid concurrent modification
-        val commandsToExecute = activeCommands.toList()
-        
-        for (command in commandsToExecute) {
+        // Commands scheduled from here only get queued, so activeSlots can't grow while iterating
+        val slots = activeSlots
+        for (i in 0 until slots) {
+            // Null if the command was removed earlier in this pass
+            val command = activeCommands[i] ?: continue
+
+            // Bound commands run on their subsystem's thread and are reaped by reapBoundCommands()
+            if (command.boundToSubsystem) continue
+
             try {
                 // Execute the command
-                command.periodic()
+                command.periodicInternal()
                 
                 // Check if finished
                 if (command.isFinishedInternal()) {
                     // End normally
                     try {
-                        command.end(interrupted = false)
+                        command.endInternal(interrupted = false)
                     } catch (e: Exception) {
                         System.err.println("Error ending command: ${e.message}")
                         e.printStackTrace()
                     }
                     
                     // Remove from active commands
-                    activeCommands.remove(command)
+                    removeActive(command)
                     
                     // Remove from subsystem mappings
-                    val requirements = command.requirements
-                    for (subsystemClass in requirements) {
-                        if (subsystemCommands[subsystemClass] == command) {
-                            subsystemCommands.remove(subsystemClass)
-                        }
-                    }
+                    releaseRequirements(command)
                 }
             } catch (e: Exception) {
                 // Command threw exception - cancel it
@@ -257,34 +540,59 @@ class CommandScheduler : RobotThread("CommandScheduler", 20) {
                 cancelCommandInternal(command)
             }
         }
+        compactActive()
     }
     
     /**
      * Update telemetry for the scheduler.
      */
     private fun updateSchedulerTelemetry() {
-        telemetry.addData("Active Commands", activeCommands.size)
-        telemetry.addData("Busy Subsystems", subsystemCommands.size)
+        telemetry.addData("Active Commands", activeCount)
+        telemetry.addData("Busy Subsystems", java.lang.Long.bitCount(busyMask))
         
-        if (activeCommands.isNotEmpty()) {
-            telemetry.addData("Commands", activeCommands.joinToString(", ") { 
-                val name = it.javaClass.simpleName
-                if (!it.interruptible) "$name [NON-INTERRUPTIBLE]" else name
-            })
+        if (activeCount > 0) {
+            // Only rebuild the text when the active set changed
+            if (telemetryVersion != activeVersion) {
+                telemetryVersion = activeVersion
+                commandsText = buildCommandsText()
+            }
+            telemetry.addData("Commands", commandsText)
+        }
+
+        telemetry.addData("Wake On Schedule", wakeOnSchedule)
+        telemetry.addData(latencyChannel)
+
+        if (countingAllocations) {
+            telemetry.addData("Loop Allocations", loopAllocations)
         }
     }
+
+    private fun buildCommandsText(): String {
+        val text = StringBuilder()
+        for (i in 0 until activeSlots) {
+            val command = activeCommands[i] ?: continue
+            if (text.isNotEmpty()) text.append(", ")
+            text.append(command.javaClass.simpleName)
+            if (command.boundToSubsystem) text.append(" @").append(command.requiredSubsystem?.name)
+            if (!command.interruptible) text.append(" [NON-INTERRUPTIBLE]")
+        }
+        return text.toString()
+    }
     
     /**
      * Get the number of active commands.
      */
-    fun getActiveCommandCount(): Int = activeCommands.size
+    fun getActiveCommandCount(): Int = activeCount
     
     /**
      * Check if a specific command is active.
      */
-    fun isCommandActive(command: Command): Boolean = activeCommands.contains(command)
+    fun isCommandActive(command: Command): Boolean = command.isScheduled
     
     companion object {
+        /** Active command slots allocated up front; doubles if ever exceeded */
+        private const val INITIAL_CAPACITY = 32
+
         @Volatile
         private var instance: CommandScheduler? = null
         
@@ -305,6 +613,14 @@ class CommandScheduler : RobotThread("CommandScheduler", 20) {
         internal fun setInstance(scheduler: CommandScheduler?) {
             instance = scheduler
         }
+
+        /**
+         * Wake the scheduler, if running, to reap a cancelled bound command and start
+         * whatever was waiting for its subsystems.
+         */
+        internal fun wakeForReap() {
+            instance?.wake()
+        }
     }
 }
 
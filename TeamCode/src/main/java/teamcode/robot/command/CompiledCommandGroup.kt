@@ -0,0 +1,231 @@
+package teamcode.robot.command
+
+/**
+ * A tree of SequentialCommandGroup / ParallelCommandGroup / ParallelRaceGroup
+ * flattened into tables by CommandCompiler.
+ *
+ * Every group and leaf command in the tree is one node, stored in pre-order, so a
+ * node's subtree is the index range [node, subtreeEnd[node]). Transitions are
+ * precomputed when compiling:
+ * - Sequence children point at the next child to start when they finish
+ * - Parallel groups keep a join counter of children still running
+ * - Race groups interrupt the rest of their subtree when any child finishes
+ *
+ * periodic() is one linear pass over the node table that skips inactive subtrees,
+ * and starting/finishing nodes runs off a preallocated event stack, so there is
+ * no recursion and nothing is allocated per tick.
+ *
+ * Behaves like the group classes it was compiled from: children run in the same
+ * order, a child started this tick first runs next tick, and a race's losers are
+ * ended with interrupted = true as soon as it is decided. A child that throws is
+ * treated as finished after end(true), and one that fails to initialize is treated
+ * as finished without end(); in a sequence, the next child starts right away.
+ *
+ * Two error cases differ from the nested groups:
+ * - A group all of whose children fail to initialize finishes as it starts, so what
+ *   follows it starts a tick earlier than with the nested groups
+ * - A race child that fails to initialize decides the race at once; its later
+ *   siblings are never started, where ParallelRaceGroup starts them all and ends
+ *   them on the next tick
+ *
+ * Build with CommandCompiler.compile() or command.compiled().
+ */
+class CompiledCommandGroup internal constructor(
+    /** The group tree this was compiled from */
+    val source: Command,
+    private val kind: IntArray,
+    private val leaves: Array<Command?>,
+    private val parent: IntArray,
+    private val subtreeEnd: IntArray,
+    /** Sequence sibling to start when this node finishes, or -1 */
+    private val next: IntArray,
+    private val childStart: IntArray,
+    private val childCount: IntArray,
+    private val children: IntArray,
+) : Command() {
+
+    /** Number of nodes (groups and leaves) in the table */
+    val nodeCount: Int = kind.size
+
+    private val active = BooleanArray(nodeCount)
+    /** Join counters for parallel groups */
+    private val remaining = IntArray(nodeCount)
+    /** Tick each leaf was started on, so it first runs on the following tick */
+    private val startedTick = LongArray(nodeCount)
+
+    /** Pending START/FINISH events; each node gets at most one of each per run */
+    private val events = IntArray(nodeCount * 2)
+    private var eventCount = 0
+
+    private var tick = 0L
+    private var done = false
+
+    init {
+        addRequirements(source)
+        interruptible = source.interruptible
+    }
+
+    override fun initialize() {
+        active.fill(false)
+        eventCount = 0
+        done = false
+        push(ROOT, START)
+        settle()
+    }
+
+    override fun periodic() {
+        tick++
+        var i = 0
+        while (i < nodeCount) {
+            if (!active[i]) {
+                i = subtreeEnd[i]
+                continue
+            }
+            val command = leaves[i]
+            if (command != null && startedTick[i] != tick) {
+                if (runLeaf(command)) {
+                    push(i, FINISH)
+                    settle()
+                }
+            }
+            i++
+        }
+    }
+
+    /**
+     * Run one tick of a leaf.
+     * @return Whether it finished (it has already been ended)
+     */
+    private fun runLeaf(command: Command): Boolean {
+        try {
+            command.periodicInternal()
+            if (!command.isFinishedInternal()) return false
+            try {
+                command.endInternal(interrupted = false)
+            } catch (e: Exception) {
+                System.err.println("Error ending command in CompiledCommandGroup: ${e.message}")
+                e.printStackTrace()
+            }
+        } catch (e: Exception) {
+            System.err.println("Error executing command in CompiledCommandGroup: ${e.message}")
+            e.printStackTrace()
+            try {
+                command.endInternal(interrupted = true)
+            } catch (endError: Exception) {
+                System.err.println("Error ending failed command: ${endError.message}")
+            }
+        }
+        return true
+    }
+
+    private fun push(node: Int, event: Int) {
+        events[eventCount++] = (node shl 1) or event
+    }
+
+    /**
+     * Process pending events. A stack keeps the same order the nested groups
+     * would use: a child's starts and finishes resolve before its later siblings.
+     */
+    private fun settle() {
+        while (eventCount > 0) {
+            val event = events[--eventCount]
+            val node = event shr 1
+            if (event and 1 == START) startNode(node) else finishNode(node)
+        }
+    }
+
+    private fun startNode(node: Int) {
+        // A race may have been decided while this start was pending
+        val p = parent[node]
+        if (p >= 0 && !active[p]) return
+
+        active[node] = true
+        val first = childStart[node]
+        val count = childCount[node]
+        when (kind[node]) {
+            LEAF -> {
+                startedTick[node] = tick
+                try {
+                    leaves[node]?.initializeInternal()
+                } catch (e: Exception) {
+                    System.err.println("Error initializing command in CompiledCommandGroup: ${e.message}")
+                    e.printStackTrace()
+                    push(node, FINISH)
+                }
+            }
+            SEQUENCE -> {
+                if (count == 0) push(node, FINISH) else push(children[first], START)
+            }
+            PARALLEL -> {
+                remaining[node] = count
+                if (count == 0) push(node, FINISH)
+                // Reverse so the first child is started first
+                for (c in first + count - 1 downTo first) push(children[c], START)
+            }
+            // An empty race never finishes, same as ParallelRaceGroup
+            RACE -> for (c in first + count - 1 downTo first) push(children[c], START)
+        }
+    }
+
+    private fun finishNode(node: Int) {
+        if (!active[node]) return
+        active[node] = false
+
+        val p = parent[node]
+        if (p < 0) {
+            done = true
+            return
+        }
+        when (kind[p]) {
+            SEQUENCE -> {
+                val following = next[node]
+                if (following >= 0) push(following, START) else push(p, FINISH)
+            }
+            PARALLEL -> if (--remaining[p] == 0) push(p, FINISH)
+            RACE -> {
+                interrupt(p + 1, subtreeEnd[p])
+                push(p, FINISH)
+            }
+        }
+    }
+
+    /**
+     * End every active leaf in [from, until) with interrupted = true, in pre-order.
+     */
+    private fun interrupt(from: Int, until: Int) {
+        for (i in from until until) {
+            if (!active[i]) continue
+            active[i] = false
+            val command = leaves[i] ?: continue
+            try {
+                command.endInternal(interrupted = true)
+            } catch (e: Exception) {
+                System.err.println("Error ending command in CompiledCommandGroup cleanup: ${e.message}")
+                e.printStackTrace()
+            }
+        }
+    }
+
+    override fun isFinished(): Boolean = done
+
+    override fun end(interrupted: Boolean) {
+        if (interrupted) {
+            interrupt(0, nodeCount)
+        }
+        active.fill(false)
+        eventCount = 0
+    }
+
+    override fun toString(): String = "Compiled(${source.javaClass.simpleName}, $nodeCount nodes)"
+
+    internal companion object {
+        const val LEAF = 0
+        const val SEQUENCE = 1
+        const val PARALLEL = 2
+        const val RACE = 3
+
+        private const val ROOT = 0
+        private const val START = 0
+        private const val FINISH = 1
+    }
+}
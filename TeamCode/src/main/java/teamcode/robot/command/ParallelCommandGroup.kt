@@ -27,9 +27,12 @@ import teamcode.robot.core.subsystem.Subsystem
  * )
  * ```
  */
-class ParallelCommandGroup : Command {
-    private val commands: List<Command>
-    private val finishedCommands = mutableSetOf<Command>()
+open class ParallelCommandGroup : Command {
+    internal val commands: Array<Command>
+
+    /** Which children have finished, by index (preallocated so reuse doesn't allocate) */
+    private val finished: BooleanArray
+    private var finishedCount = 0
     
     /**
      * Create a parallel command group.
@@ -37,10 +40,11 @@ class ParallelCommandGroup : Command {
      * @param commands Commands to run in parallel
      */
     constructor(vararg commands: Command) {
-        this.commands = commands.toList()
+        this.commands = Array(commands.size) { commands[it] }
+        this.finished = BooleanArray(commands.size)
         // Add all child requirements to this group's requirements
         for (command in commands) {
-            this.requirements.addAll(command.requirements)
+            addRequirements(command)
         }
 
         interruptible = commands.all { it.interruptible }
@@ -52,76 +56,88 @@ class ParallelCommandGroup : Command {
      * @param commands List of commands to run in parallel
      */
     constructor(commands: List<Command>) {
-        this.commands = commands
+        this.commands = commands.toTypedArray()
+        this.finished = BooleanArray(commands.size)
         // Add all child requirements to this group's requirements
         for (command in commands) {
-            if (command.requirements.any { it in requirements}){
+            if (command.requirementMask and requirementMask != 0L){
                 throw error("Cannot use the same subsystem in multiple parallel commands")
             }
-            this.requirements.addAll(command.requirements)
+            addRequirements(command)
         }
     }
     
     override fun initialize() {
-        finishedCommands.clear()
+        finished.fill(false)
+        finishedCount = 0
         // Initialize all child commands directly (not via scheduler)
-        for (command in commands) {
+        for (i in commands.indices) {
+            val command = commands[i]
             try {
-                command.initialize()
+                command.initializeInternal()
             } catch (e: Exception) {
                 System.err.println("Error initializing command in ParallelCommandGroup: ${e.message}")
                 e.printStackTrace()
-                finishedCommands.add(command)
+                markFinished(i)
             }
         }
     }
     
     override fun periodic() {
         // Execute and check all active child commands directly
-        for (command in commands) {
-            if (command in finishedCommands) continue
+        for (i in commands.indices) {
+            if (finished[i]) continue
+            val command = commands[i]
             
             try {
                 // Call periodic on the child command
-                command.periodic()
+                command.periodicInternal()
                 
                 // Check if command finished
                 if (command.isFinishedInternal()) {
                     // End the command normally
                     try {
-                        command.end(interrupted = false)
+                        command.endInternal(interrupted = false)
                     } catch (e: Exception) {
                         System.err.println("Error ending command in ParallelCommandGroup: ${e.message}")
                         e.printStackTrace()
                     }
-                    finishedCommands.add(command)
+                    markFinished(i)
                 }
             } catch (e: Exception) {
                 System.err.println("Error executing command in ParallelCommandGroup: ${e.message}")
                 e.printStackTrace()
                 // Mark as finished on error
                 try {
-                    command.end(interrupted = true)
+                    command.endInternal(interrupted = true)
                 } catch (endError: Exception) {
                     System.err.println("Error ending failed command: ${endError.message}")
                 }
-                finishedCommands.add(command)
+                markFinished(i)
             }
         }
     }
     
+    private fun markFinished(index: Int) {
+        if (!finished[index]) {
+            finished[index] = true
+            finishedCount++
+        }
+    }
+
     override fun isFinished(): Boolean {
         // Finished when all commands are finished
-        return finishedCommands.size == commands.size
+        return finishedCount == commands.size
     }
     
     override fun end(interrupted: Boolean) {
         // End all commands that haven't finished yet
         if (interrupted) {
-            for (command in commands) {
-                if (command !in finishedCommands) {
+            for (i in commands.indices) {
+                val command = commands[i]
+                if (!finished[i]) {
                     try {
-                        command.end(interrupted = true)
+                        command.endInternal(interrupted = true)
                     } catch (e: Exception) {
                         System.err.println("Error ending command in ParallelCommandGroup cleanup: ${e.message}")
                         e.printStackTrace()
@@ -129,7 +145,8 @@ class ParallelCommandGroup : Command {
                 }
             }
         }
-        finishedCommands.clear()
+        finished.fill(false)
+        finishedCount = 0
     }
     
     companion object {
@@ -24,9 +24,12 @@ package teamcode.robot.command
  * )
  * ```
  */
-class ParallelRaceGroup : Command {
-    private val commands: List<Command>
-    private val finishedCommands = mutableSetOf<Command>()
+open class ParallelRaceGroup : Command {
+    internal val commands: Array<Command>
+
+    /** Which children have finished, by index (preallocated so reuse doesn't allocate) */
+    private val finished: BooleanArray
+    private var finishedCount = 0
     
     /**
      * Create a parallel race group.
@@ -34,10 +37,11 @@ class ParallelRaceGroup : Command {
      * @param commands Commands to run in parallel (finishes when first completes)
      */
     constructor(vararg commands: Command) {
-        this.commands = commands.toList()
+        this.commands = Array(commands.size) { commands[it] }
+        this.finished = BooleanArray(commands.size)
         // Add all child requirements to this group's requirements
         for (command in commands) {
-            this.requirements.addAll(command.requirements)
+            addRequirements(command)
         }
 
         interruptible = commands.all { it.interruptible }
@@ -50,46 +54,50 @@ class ParallelRaceGroup : Command {
      * @param commands List of commands to run in parallel
      */
     constructor(commands: List<Command>) {
-        this.commands = commands
+        this.commands = commands.toTypedArray()
+        this.finished = BooleanArray(commands.size)
         // Add all child requirements to this group's requirements
         for (command in commands) {
-            this.requirements.addAll(command.requirements)
+            addRequirements(command)
         }
     }
     
     override fun initialize() {
-        finishedCommands.clear()
+        finished.fill(false)
+        finishedCount = 0
         // Initialize all child commands directly (not via scheduler)
-        for (command in commands) {
+        for (i in commands.indices) {
+            val command = commands[i]
             try {
-                command.initialize()
+                command.initializeInternal()
             } catch (e: Exception) {
                 System.err.println("Error initializing command in ParallelRaceGroup: ${e.message}")
                 e.printStackTrace()
-                finishedCommands.add(command)
+                markFinished(i)
             }
         }
     }
     
     override fun periodic() {
         // Execute and check all active child commands directly
-        for (command in commands) {
-            if (command in finishedCommands) continue
+        for (i in commands.indices) {
+            if (finished[i]) continue
+            val command = commands[i]
             
             try {
                 // Call periodic on the child command
-                command.periodic()
+                command.periodicInternal()
                 
                 // Check if command finished
                 if (command.isFinishedInternal()) {
                     // In race mode, first to finish wins - end it normally
                     try {
-                        command.end(interrupted = false)
+                        command.endInternal(interrupted = false)
                     } catch (e: Exception) {
                         System.err.println("Error ending command in ParallelRaceGroup: ${e.message}")
                         e.printStackTrace()
                     }
-                    finishedCommands.add(command)
+                    markFinished(i)
                     return  // Stop checking others - race is over
                 }
             } catch (e: Exception) {
@@ -97,34 +105,43 @@ class ParallelRaceGroup : Command {
                 e.printStackTrace()
                 // Mark as finished on error
                 try {
-                    command.end(interrupted = true)
+                    command.endInternal(interrupted = true)
                 } catch (endError: Exception) {
                     System.err.println("Error ending failed command: ${endError.message}")
                 }
-                finishedCommands.add(command)
+                markFinished(i)
                 return  // Race over due to error
             }
         }
     }
     
+    private fun markFinished(index: Int) {
+        if (!finished[index]) {
+            finished[index] = true
+            finishedCount++
+        }
+    }
+
     override fun isFinished(): Boolean {
         // Finished when ANY command is finished (race condition)
-        return finishedCommands.isNotEmpty()
+        return finishedCount > 0
     }
     
     override fun end(interrupted: Boolean) {
         // End all commands that haven't finished yet
-        for (command in commands) {
-            if (command !in finishedCommands) {
+        for (i in commands.indices) {
+            val command = commands[i]
+            if (!finished[i]) {
                 try {
-                    command.end(interrupted = true)
+                    command.endInternal(interrupted = true)
                 } catch (e: Exception) {
                     System.err.println("Error ending command in ParallelRaceGroup cleanup: ${e.message}")
                     e.printStackTrace()
                 }
             }
         }
-        finishedCommands.clear()
+        finished.fill(false)
+        finishedCount = 0
     }
     
     companion object {
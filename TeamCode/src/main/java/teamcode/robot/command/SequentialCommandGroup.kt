@@ -29,8 +29,8 @@ import teamcode.robot.core.subsystem.Subsystem
  * )
  * ```
  */
-class SequentialCommandGroup : Command {
-    private val commands: List<Command>
+open class SequentialCommandGroup : Command {
+    internal val commands: Array<Command>
     private var currentIndex = 0
     private var currentCommand: Command? = null
     
@@ -40,10 +40,10 @@ class SequentialCommandGroup : Command {
      * @param commands Commands to run in sequence
      */
     constructor(vararg commands: Command) {
-        this.commands = commands.toList()
+        this.commands = Array(commands.size) { commands[it] }
         // Add all child requirements to this group's requirements
         for (command in commands) {
-            this.requirements.addAll(command.requirements)
+            addRequirements(command)
         }
 
         interruptible = commands.all { it.interruptible }
@@ -56,93 +56,70 @@ class SequentialCommandGroup : Command {
      * @param commands List of commands to run in sequence
      */
     constructor(commands: List<Command>) {
-        this.commands = commands
+        this.commands = commands.toTypedArray()
         // Add all child requirements to this group's requirements
         for (command in commands) {
-            this.requirements.addAll(command.requirements)
+            addRequirements(command)
         }
     }
     
     override fun initialize() {
-        currentIndex = 0
         currentCommand = null
-        // Initialize first command directly
-        if (commands.isNotEmpty()) {
-            try {
-                currentCommand = commands[0]
-                currentCommand?.initialize()
-            } catch (e: Exception) {
-                System.err.println("Error initializing first command in SequentialCommandGroup: ${e.message}")
-                e.printStackTrace()
-                currentIndex++
-                currentCommand = null
-            }
-        }
+        startFrom(0)
     }
     
     override fun periodic() {
-        if (currentIndex >= commands.size) return
-        
-        val current = currentCommand
-        if (current == null) {
-            // Current command failed to initialize, move to next
-            currentIndex++
-            if (currentIndex < commands.size) {
-                try {
-                    currentCommand = commands[currentIndex]
-                    currentCommand?.initialize()
-                } catch (e: Exception) {
-                    System.err.println("Error initializing next command in SequentialCommandGroup: ${e.message}")
-                    e.printStackTrace()
-                    currentIndex++
-                    currentCommand = null
-                }
-            }
-            return
-        }
+        val current = currentCommand ?: return
         
         try {
             // Execute the current command
-            current.periodic()
+            current.periodicInternal()
             
             // Check if finished
             if (current.isFinishedInternal()) {
                 // End the command normally
                 try {
-                    current.end(interrupted = false)
+                    current.endInternal(interrupted = false)
                 } catch (e: Exception) {
                     System.err.println("Error ending command in SequentialCommandGroup: ${e.message}")
                     e.printStackTrace()
                 }
                 
                 // Move to next command
-                currentIndex++
-                currentCommand = null
-                
-                // Initialize next command if available
-                if (currentIndex < commands.size) {
-                    try {
-                        currentCommand = commands[currentIndex]
-                        currentCommand?.initialize()
-                    } catch (e: Exception) {
-                        System.err.println("Error initializing next command in SequentialCommandGroup: ${e.message}")
-                        e.printStackTrace()
-                        currentIndex++
-                        currentCommand = null
-                    }
-                }
+                startFrom(currentIndex + 1)
             }
         } catch (e: Exception) {
             System.err.println("Error executing command in SequentialCommandGroup: ${e.message}")
             e.printStackTrace()
             // End current command on error and move to next
             try {
-                current.end(interrupted = true)
+                current.endInternal(interrupted = true)
             } catch (endError: Exception) {
                 System.err.println("Error ending failed command: ${endError.message}")
             }
-            currentIndex++
-            currentCommand = null
+            startFrom(currentIndex + 1)
+        }
+    }
+
+    /**
+     * Initialize the command at [index], or the first one after it that initializes
+     * without throwing. A command that fails to initialize is skipped without end(),
+     * and the next one starts right away.
+     */
+    private fun startFrom(index: Int) {
+        currentIndex = index
+        currentCommand = null
+        while (currentIndex < commands.size) {
+            val next = commands[currentIndex]
+            try {
+                next.initializeInternal()
+                currentCommand = next
+                return
+            } catch (e: Exception) {
+                System.err.println("Error initializing command in SequentialCommandGroup: ${e.message}")
+                e.printStackTrace()
+                currentIndex++
+            }
         }
     }
     
@@ -157,7 +134,7 @@ class SequentialCommandGroup : Command {
             val current = currentCommand
             if (current != null) {
                 try {
-                    current.end(interrupted = true)
+                    current.endInternal(interrupted = true)
                 } catch (e: Exception) {
                     System.err.println("Error ending current command in SequentialCommandGroup cleanup: ${e.message}")
                     e.printStackTrace()
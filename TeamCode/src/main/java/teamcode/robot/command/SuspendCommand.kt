@@ -0,0 +1,315 @@
+package teamcode.robot.command
+
+import kotlin.coroutines.Continuation
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.EmptyCoroutineContext
+import kotlin.coroutines.cancellation.CancellationException
+import kotlin.coroutines.createCoroutine
+import kotlin.coroutines.intrinsics.COROUTINE_SUSPENDED
+import kotlin.coroutines.intrinsics.suspendCoroutineUninterceptedOrReturn
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * A command written as one suspend function instead of a state machine.
+ *
+ * body() starts in initialize() and runs until its first suspension. After that it is
+ * resumed only from periodic(), so it always runs on the CommandScheduler thread -
+ * the scheduler tick is the dispatcher, no kotlinx.coroutines needed. A suspended
+ * body costs one time comparison per tick until its deadline is due (or one call of
+ * its waitUntil condition).
+ *
+ * Requirements work like any other command: call current<T>() in a property
+ * initializer. Interrupting the command resumes the body with a CancellationException
+ * at its suspension point, so `finally` blocks run on the scheduler thread.
+ *
+ * Example:
+ * ```
+ * class Shoot : SuspendCommand(false) {
+ *     private val kicker = current<KickerSubsystem>()
+ *
+ *     override suspend fun body() {
+ *         kicker.kickerUp()
+ *         delay(500)
+ *         kicker.kickerDown()
+ *         waitUntil { kicker.currentState === KickerState.IDLE }
+ *     }
+ * }
+ * ```
+ */
+abstract class SuspendCommand(interruptible: Boolean = true) : Command(interruptible) {
+
+    /**
+     * The command's logic. Returning finishes the command.
+     */
+    protected abstract suspend fun body()
+
+    private val main: suspend () -> Unit = { body() }
+
+    /** Strand 0 runs body(), the rest are parallel branches; reused across runs */
+    private val strands = ArrayList<Strand>()
+    private var strandCount = 0
+
+    /** Strand currently being resumed */
+    private var running: Strand? = null
+
+    private var tick = 0L
+
+    /** Nothing needs resuming before this (System.nanoTime()), unless a strand is polling */
+    private var nextWakeNanos = 0L
+    private var polling = false
+
+    final override fun initialize() {
+        strandCount = 0
+        start(newStrand(), main)
+        plan()
+        rethrowFailure(strands[0])
+    }
+
+    final override fun periodic() {
+        tick++
+        if (!polling && System.nanoTime() - nextWakeNanos < 0) return
+
+        // Branches started during this pass are appended and picked up next tick
+        val count = strandCount
+        for (i in 0 until count) {
+            step(strands[i])
+        }
+        plan()
+        rethrowFailure(strands[0])
+    }
+
+    final override fun isFinished(): Boolean = strandCount > 0 && strands[0].done
+
+    final override fun end(interrupted: Boolean) {
+        if (!interrupted) return
+        // Innermost branches first, so a parallel() is unwound before the code around it
+        for (i in strandCount - 1 downTo 0) {
+            cancel(strands[i])
+        }
+    }
+
+    /**
+     * Suspend for [ms] milliseconds.
+     */
+    suspend fun delay(ms: Long) {
+        val strand = current()
+        strand.condition = null
+        strand.wakeAtNanos = System.nanoTime() + ms * 1_000_000L
+        park(strand)
+    }
+
+    /**
+     * Suspend until [condition] is true. It is checked once per scheduler tick,
+     * starting with the next one.
+     */
+    suspend fun waitUntil(condition: () -> Boolean) {
+        val strand = current()
+        strand.condition = condition
+        park(strand)
+    }
+
+    /**
+     * Suspend until the next scheduler tick.
+     */
+    suspend fun nextTick() {
+        val strand = current()
+        strand.condition = null
+        strand.wakeAtNanos = 0L
+        park(strand)
+    }
+
+    /**
+     * Run [blocks] side by side and return once all of them have finished.
+     * If one throws, the others are cancelled and the exception is rethrown here.
+     */
+    suspend fun parallel(vararg blocks: suspend () -> Unit) {
+        current()
+        val first = strandCount
+        for (block in blocks) {
+            start(newStrand(), block)
+        }
+        val last = strandCount
+
+        waitUntil { branchesDone(first, last) }
+
+        for (i in first until last) {
+            val failure = strands[i].failure
+            if (failure != null) {
+                for (j in last - 1 downTo first) cancel(strands[j])
+                throw failure
+            }
+        }
+        // Free the branch slots when nothing was started after them
+        if (strandCount == last) strandCount = first
+    }
+
+    /**
+     * Run another command to completion inside this one, the way a group would.
+     * Its requirements must be added up front with uses().
+     */
+    suspend fun await(command: Command) {
+        command.initializeInternal()
+        try {
+            do {
+                nextTick()
+                command.periodicInternal()
+            } while (!command.isFinishedInternal())
+        } catch (e: Throwable) {
+            command.endInternal(interrupted = true)
+            throw e
+        }
+        command.endInternal(interrupted = false)
+    }
+
+    /**
+     * Add [command]'s requirements to this one, for commands run with await().
+     */
+    protected fun <T : Command> uses(command: T): T {
+        addRequirements(command)
+        return command
+    }
+
+    private fun branchesDone(first: Int, last: Int): Boolean {
+        for (i in first until last) {
+            val strand = strands[i]
+            if (strand.failure != null) return true
+            if (!strand.done) return false
+        }
+        return true
+    }
+
+    private fun current(): Strand =
+        running ?: throw IllegalStateException("SuspendCommand functions must be called from body()")
+
+    private suspend fun park(strand: Strand) = suspendCoroutineUninterceptedOrReturn<Unit> { continuation ->
+        strand.continuation = continuation
+        strand.parkedTick = tick
+        COROUTINE_SUSPENDED
+    }
+
+    private fun newStrand(): Strand {
+        val strand = if (strandCount < strands.size) {
+            strands[strandCount]
+        } else {
+            Strand().also { strands.add(it) }
+        }
+        strandCount++
+        strand.reset()
+        return strand
+    }
+
+    private fun start(strand: Strand, block: suspend () -> Unit) {
+        strand.continuation = block.createCoroutine(strand)
+        resume(strand, null)
+    }
+
+    private fun step(strand: Strand) {
+        if (strand.done || strand.continuation == null) return
+        // Parked during this pass; it gets its first check next tick
+        if (strand.parkedTick == tick) return
+
+        val condition = strand.condition
+        if (condition != null) {
+            if (!condition()) return
+            strand.condition = null
+        } else if (System.nanoTime() - strand.wakeAtNanos < 0) {
+            return
+        }
+        resume(strand, null)
+    }
+
+    private fun cancel(strand: Strand) {
+        if (strand.done || strand.continuation == null) return
+        strand.condition = null
+        resume(strand, Cancelled)
+        // A body that suspends again while cancelled is abandoned there
+        strand.continuation = null
+        strand.done = true
+    }
+
+    private fun resume(strand: Strand, exception: Throwable?) {
+        val continuation = strand.continuation ?: return
+        strand.continuation = null
+        val previous = running
+        running = strand
+        try {
+            if (exception == null) continuation.resume(Unit) else continuation.resumeWithException(exception)
+        } finally {
+            running = previous
+        }
+    }
+
+    /**
+     * Work out when periodic() next has anything to do.
+     */
+    private fun plan() {
+        var wake = Long.MAX_VALUE
+        var anyPolling = false
+        val now = System.nanoTime()
+        for (i in 0 until strandCount) {
+            val strand = strands[i]
+            if (strand.done || strand.continuation == null) continue
+            if (strand.condition != null) {
+                anyPolling = true
+            } else if (strand.wakeAtNanos - now < wake) {
+                wake = strand.wakeAtNanos - now
+            }
+        }
+        polling = anyPolling
+        nextWakeNanos = if (wake == Long.MAX_VALUE) now + IDLE_NANOS else now + wake
+    }
+
+    private fun rethrowFailure(strand: Strand) {
+        val failure = strand.failure ?: return
+        strand.failure = null
+        throw failure
+    }
+
+    /**
+     * One line of execution: body() or a parallel() branch. Also its completion,
+     * which records how it ended.
+     */
+    private class Strand : Continuation<Unit> {
+        var continuation: Continuation<Unit>? = null
+        var condition: (() -> Boolean)? = null
+        var wakeAtNanos = 0L
+        var parkedTick = -1L
+        var done = false
+        var failure: Throwable? = null
+
+        override val context: CoroutineContext
+            get() = EmptyCoroutineContext
+
+        override fun resumeWith(result: Result<Unit>) {
+            done = true
+            continuation = null
+            val exception = result.exceptionOrNull()
+            if (exception != null && exception !is CancellationException) {
+                failure = exception
+            }
+        }
+
+        fun reset() {
+            continuation = null
+            condition = null
+            wakeAtNanos = 0L
+            parkedTick = -1L
+            done = false
+            failure = null
+        }
+    }
+
+    /**
+     * Thrown into a body at its suspension point when the command is interrupted.
+     * Preallocated and stackless - it only carries the signal.
+     */
+    private object Cancelled : CancellationException("Command interrupted") {
+        override fun fillInStackTrace(): Throwable = this
+    }
+
+    private companion object {
+        /** Re-check at least this often when nothing is parked on a deadline */
+        const val IDLE_NANOS = 1_000_000_000L
+    }
+}
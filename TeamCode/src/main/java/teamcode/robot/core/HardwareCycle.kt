@@ -0,0 +1,93 @@
+package teamcode.robot.core
+
+import teamcode.telemetry.DataLogger
+import teamcode.telemetry.DoubleChannel
+import teamcode.telemetry.LongChannel
+import teamcode.threading.LoopMode
+import teamcode.threading.RobotThread
+
+/**
+ * Refreshes RobotHardware.snapshot and flushes RobotOutputs at a fixed rate.
+ *
+ * This is the only thread that talks to the hubs while the OpMode runs: one bulk
+ * read per hub per cycle, then one batch of actuator writes. Subsystems read
+ * RobotHardware.snapshot and write RobotOutputs instead of using the motors directly.
+ *
+ * Created automatically by ThreadedOpMode.
+ */
+class HardwareCycle : RobotThread("HardwareCycle", 5) {
+
+    init {
+        loopMode = LoopMode.FIXED_RATE
+    }
+
+    private val leftFrontChannel = DataLogger.channel("Encoders/leftFront")
+    private val leftBackChannel = DataLogger.channel("Encoders/leftBack")
+    private val rightFrontChannel = DataLogger.channel("Encoders/rightFront")
+    private val rightBackChannel = DataLogger.channel("Encoders/rightBack")
+    private val turretChannel = DataLogger.channel("Encoders/turret")
+    private val shooterLeftChannel = DataLogger.channel("Encoders/shooterLeft velocity")
+    private val shooterRightChannel = DataLogger.channel("Encoders/shooterRight velocity")
+    private val spindexerChannel = DataLogger.channel("Encoders/spindexer")
+    private val spindexerVelocityChannel = DataLogger.channel("Encoders/spindexer velocity")
+
+    // Per-cycle timing and counters are quiet so they don't force a telemetry send every cycle
+    private val sequenceChannel = LongChannel("Sequence", quiet = true)
+    private val bulkReadChannel = DoubleChannel("Bulk Read (ms)", "%.2f", quiet = true)
+    private val flushChannel = DoubleChannel("Flush (ms)", "%.2f", quiet = true)
+    private val writesIssuedChannel = LongChannel("Writes Issued", quiet = true)
+    private val writesSuppressedChannel = LongChannel("Writes Suppressed", quiet = true)
+    private val writesOverwrittenChannel = LongChannel("Writes Overwritten", quiet = true)
+    private val batteryVoltageChannel = DoubleChannel("Battery (V)", "%.2f")
+    private val voltageScaleChannel = DoubleChannel("Voltage Scale", "%.3f")
+    private val requestedAmpsTelemetry = DoubleChannel("Power Requested (A)", "%.1f")
+    private val allowedAmpsTelemetry = DoubleChannel("Power Allowed (A)", "%.1f")
+    private val powerLoads = PowerLoad.values()
+    private val throttleChannels = powerLoads.map { DoubleChannel("Throttle ${it.label}", "%.0f%%") }
+
+    /**
+     * A bulk read is one short transaction per hub, so it can share an executive.
+     */
+    override val canRunCooperatively: Boolean
+        get() = true
+
+    override fun runLoop() {
+        val start = System.nanoTime()
+        val snapshot = RobotHardware.refreshBulkData()
+        RobotOutputs.flush()
+        val end = System.nanoTime()
+        log(snapshot)
+
+        telemetry.addData("Hubs", RobotHardware.allHubs.size)
+        telemetry.addData(sequenceChannel, snapshot.sequence)
+        telemetry.addData(bulkReadChannel, (snapshot.timestampNanos - start) / 1e6)
+        telemetry.addData(flushChannel, (end - snapshot.timestampNanos) / 1e6)
+        telemetry.addData(batteryVoltageChannel, snapshot.batteryVoltage)
+        telemetry.addData(voltageScaleChannel, RobotOutputs.voltageScale(snapshot.batteryVoltage))
+        telemetry.addData(requestedAmpsTelemetry, PowerArbiter.requestedAmps)
+        telemetry.addData(allowedAmpsTelemetry, PowerArbiter.allowedAmps)
+        for (load in powerLoads) {
+            telemetry.addData(throttleChannels[load.ordinal], PowerArbiter.throttle(load) * 100.0)
+        }
+        telemetry.addData(writesIssuedChannel, RobotOutputs.issuedCount())
+        telemetry.addData(writesSuppressedChannel, RobotOutputs.suppressedCount())
+        telemetry.addData(writesOverwrittenChannel, RobotOutputs.overwrittenCount())
+    }
+
+    /**
+     * Log every encoder reading at the full cycle rate. Battery voltage and the
+     * power budget are logged through their telemetry channels.
+     */
+    private fun log(snapshot: HardwareSnapshot) {
+        if (!DataLogger.enabled) return
+        DataLogger.log(leftFrontChannel, snapshot.leftFrontPosition)
+        DataLogger.log(leftBackChannel, snapshot.leftBackPosition)
+        DataLogger.log(rightFrontChannel, snapshot.rightFrontPosition)
+        DataLogger.log(rightBackChannel, snapshot.rightBackPosition)
+        DataLogger.log(turretChannel, snapshot.turretTurnPosition)
+        DataLogger.log(shooterLeftChannel, snapshot.shooterLeftVelocity)
+        DataLogger.log(shooterRightChannel, snapshot.shooterRightVelocity)
+        DataLogger.log(spindexerChannel, snapshot.spindexerPosition)
+        DataLogger.log(spindexerVelocityChannel, snapshot.spindexerVelocity)
+    }
+}
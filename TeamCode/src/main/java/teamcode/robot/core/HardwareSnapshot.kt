@@ -0,0 +1,58 @@
+package teamcode.robot.core
+
+/**
+ * Immutable copy of every encoder reading taken in one bulk-read cycle.
+ *
+ * Produced by RobotHardware.refreshBulkData() once per HardwareCycle and read by any
+ * thread without touching the bus. All values in one snapshot come from the same
+ * bulk read, so encoder positions are consistent across subsystems.
+ *
+ * Velocities are in ticks per second, positions in ticks.
+ * batteryVoltage is filtered and refreshed at a lower rate than the encoders (VoltageConfig).
+ */
+class HardwareSnapshot(
+    /** When the bulk read finished (System.nanoTime()) */
+    val timestampNanos: Long,
+    /** Increments with every refresh, so readers can tell whether data is new */
+    val sequence: Long,
+
+    val leftFrontPosition: Int,
+    val leftBackPosition: Int,
+    val rightFrontPosition: Int,
+    val rightBackPosition: Int,
+
+    val turretTurnPosition: Int,
+
+    val shooterLeftVelocity: Double,
+    val shooterRightVelocity: Double,
+
+    val spindexerPosition: Int,
+    val spindexerVelocity: Double,
+
+    /** Filtered battery voltage, or 0.0 until the first sample */
+    val batteryVoltage: Double,
+) {
+    /**
+     * Age of this snapshot in milliseconds.
+     */
+    fun ageMs(): Double = (System.nanoTime() - timestampNanos) / 1e6
+
+    companion object {
+        /** Placeholder until the first bulk read */
+        @JvmField
+        val EMPTY = HardwareSnapshot(
+            timestampNanos = 0L,
+            sequence = 0L,
+            leftFrontPosition = 0,
+            leftBackPosition = 0,
+            rightFrontPosition = 0,
+            rightBackPosition = 0,
+            turretTurnPosition = 0,
+            shooterLeftVelocity = 0.0,
+            shooterRightVelocity = 0.0,
+            spindexerPosition = 0,
+            spindexerVelocity = 0.0,
+            batteryVoltage = 0.0,
+        )
+    }
+}
@@ -79,6 +79,12 @@ class PID(kP: Double, kI: Double, kD: Double) {
     // Anti-windup: stop integral accumulation when output is saturated
     private var enableAntiWindup = true
 
+    /**
+     * Hold the integral where it is while set, e.g. while the output is being cut
+     * downstream (PowerArbiter) and the error can't be closed.
+     */
+    var integratorFrozen: Boolean = false
+
     init {
         setGains(kP, kI, kD)
     }
@@ -310,7 +316,7 @@ class PID(kP: Double, kI: Double, kD: Double) {
 
         // Integral accumulation with anti-windup
         // Only accumulate integral if output is not saturated OR anti-windup is disabled
-        if (!enableAntiWindup || !outputSaturated) {
+        if ((!enableAntiWindup || !outputSaturated) && !integratorFrozen) {
             integral += error * dtSec
             integral = clamp(integral, integralMin, integralMax)
         }
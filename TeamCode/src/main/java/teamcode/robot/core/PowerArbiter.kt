@@ -0,0 +1,175 @@
+package teamcode.robot.core
+
+import com.bylazar.configurables.annotations.Configurable
+import kotlin.math.abs
+import kotlin.math.min
+
+@Configurable
+object PowerConfig {
+    @JvmField
+    var enabled: Boolean = true
+    /** Estimated total current the robot may draw before loads are throttled (A) */
+    @JvmField
+    var budgetAmps: Double = 20.0
+    /** A throttled load is never scaled below this fraction of its request */
+    @JvmField
+    var minimumScale: Double = 0.2
+
+    // Current model: estimated amps per output at full power
+    @JvmField
+    var driveAmps: Double = 5.0
+    @JvmField
+    var shooterAmps: Double = 4.0
+    @JvmField
+    var spindexerAmps: Double = 3.0
+    @JvmField
+    var turretAmps: Double = 2.0
+    @JvmField
+    var intakeAmps: Double = 1.5
+
+    // Throttle order: lowest number is throttled first, 0 is never throttled
+    @JvmField
+    var intakePriority: Int = 1
+    @JvmField
+    var idleShooterPriority: Int = 2
+    @JvmField
+    var spindexerPriority: Int = 3
+    @JvmField
+    var drivePriority: Int = 4
+}
+
+/**
+ * What an output powers, for the PowerArbiter current model and throttle order.
+ * The shooter moves between IDLE_SHOOTER and SHOOTER with the robot state;
+ * a shooting flywheel and the turret are never throttled.
+ */
+enum class PowerLoad(val label: String) {
+    INTAKE("Intake"),
+    IDLE_SHOOTER("Idle Shooter"),
+    SHOOTER("Shooter"),
+    SPINDEXER("Spindexer"),
+    DRIVE("Drive"),
+    TURRET("Turret");
+
+    /** Estimated current of one output of this load at full power (A) */
+    val fullPowerAmps: Double
+        get() = when (this) {
+            INTAKE -> PowerConfig.intakeAmps
+            IDLE_SHOOTER, SHOOTER -> PowerConfig.shooterAmps
+            SPINDEXER -> PowerConfig.spindexerAmps
+            DRIVE -> PowerConfig.driveAmps
+            TURRET -> PowerConfig.turretAmps
+        }
+
+    val priority: Int
+        get() = when (this) {
+            INTAKE -> PowerConfig.intakePriority
+            IDLE_SHOOTER -> PowerConfig.idleShooterPriority
+            SPINDEXER -> PowerConfig.spindexerPriority
+            DRIVE -> PowerConfig.drivePriority
+            SHOOTER, TURRET -> 0
+        }
+}
+
+/**
+ * Keeps the estimated current draw inside PowerConfig.budgetAmps so a flywheel
+ * spin-up while driving hard doesn't brown out the hubs.
+ *
+ * Runs in RobotOutputs.flush() before anything is sent:
+ * - Each output's demand is |power| * its load's fullPowerAmps, after voltage compensation
+ * - If the total is over budget, loads are scaled down in priority order
+ *   (intake, idle shooter, spindexer, drive) until it fits, each no further than
+ *   PowerConfig.minimumScale
+ * - Every output of a load gets the same scale, so the drive keeps its direction
+ *
+ * The cut happens after the subsystems' control loops computed their outputs, so
+ * those loops don't see it. Subsystems with an integrator on a throttleable load
+ * should freeze it while isThrottled() (PID.integratorFrozen), or it winds up for
+ * as long as the load is throttled and overshoots once the budget frees up.
+ *
+ * Only HardwareCycle calls arbitrate(); isThrottled() is safe from any thread.
+ */
+object PowerArbiter {
+
+    private val loads = PowerLoad.values()
+    private val demandAmps = DoubleArray(loads.size)
+    private val scales = DoubleArray(loads.size) { 1.0 }
+
+    /** Estimated draw of everything requested this cycle (A) */
+    var requestedAmps: Double = 0.0
+        private set
+
+    /** Estimated draw after throttling (A) */
+    var allowedAmps: Double = 0.0
+        private set
+
+    /** Bit per PowerLoad ordinal, set while that load is throttled */
+    @Volatile
+    private var throttledMask = 0
+
+    /**
+     * Compute this cycle's scale for every load.
+     * @param voltageScale Voltage compensation the outputs will be flushed with
+     */
+    fun arbitrate(outputs: Array<CoalescedOutput>, voltageScale: Double) {
+        demandAmps.fill(0.0)
+        scales.fill(1.0)
+
+        for (output in outputs) {
+            val load = output.powerLoad ?: continue
+            val power = output.target(voltageScale)
+            if (power.isNaN()) continue
+            demandAmps[load.ordinal] += abs(power) * load.fullPowerAmps
+        }
+
+        var total = 0.0
+        for (amps in demandAmps) total += amps
+        requestedAmps = total
+
+        var excess = total - PowerConfig.budgetAmps
+        var throttled = 0.0
+        if (PowerConfig.enabled && excess > 0.0) {
+            var maxPriority = 0
+            for (load in loads) if (load.priority > maxPriority) maxPriority = load.priority
+
+            val keep = PowerConfig.minimumScale.coerceIn(0.0, 1.0)
+            for (priority in 1..maxPriority) {
+                for (load in loads) {
+                    if (excess <= 0.0) break
+                    if (load.priority != priority) continue
+                    val demand = demandAmps[load.ordinal]
+                    if (demand <= 0.0) continue
+
+                    val cut = min(excess, demand * (1.0 - keep))
+                    scales[load.ordinal] = 1.0 - cut / demand
+                    excess -= cut
+                    throttled += cut
+                }
+            }
+        }
+
+        allowedAmps = total - throttled
+
+        var mask = 0
+        for (load in loads) {
+            if (scales[load.ordinal] < 1.0) mask = mask or (1 shl load.ordinal)
+        }
+        throttledMask = mask
+    }
+
+    /**
+     * Whether [load] was throttled in the last cycle. Safe from any thread.
+     */
+    fun isThrottled(load: PowerLoad): Boolean = (throttledMask and (1 shl load.ordinal)) != 0
+
+    /**
+     * Scale for outputs of [load] this cycle; 1.0 for outputs without a load.
+     */
+    fun scale(load: PowerLoad?): Double = if (load == null) 1.0 else scales[load.ordinal]
+
+    /** Fraction of [load]'s request that was cut this cycle, 0.0 to 1.0 */
+    fun throttle(load: PowerLoad): Double = 1.0 - scales[load.ordinal]
+
+    /** Estimated draw of [load] before throttling (A) */
+    fun demandAmps(load: PowerLoad): Double = demandAmps[load.ordinal]
+}
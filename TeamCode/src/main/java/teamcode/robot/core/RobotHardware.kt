@@ -1,17 +1,38 @@
 package teamcode.robot.core
 
+import com.bylazar.configurables.annotations.Configurable
 import com.qualcomm.hardware.limelightvision.Limelight3A
+import com.qualcomm.hardware.lynx.LynxModule
 import com.qualcomm.hardware.rev.RevColorSensorV3
 import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode
 import com.qualcomm.robotcore.hardware.ColorSensor
 import com.qualcomm.robotcore.hardware.Servo
+import com.qualcomm.robotcore.hardware.VoltageSensor
 import com.qualcomm.robotcore.util.ElapsedTime
 import com.seattlesolvers.solverslib.hardware.motors.CRServoEx
 import com.seattlesolvers.solverslib.hardware.motors.Motor
 import com.seattlesolvers.solverslib.hardware.motors.MotorEx
 import com.seattlesolvers.solverslib.hardware.servos.ServoEx
+import teamcode.telemetry.Tracer
+import java.util.concurrent.TimeUnit
 import kotlin.concurrent.Volatile
 
+@Configurable
+object VoltageConfig {
+    /** Voltage that compensated outputs are normalized to */
+    @JvmField
+    var nominalVoltage: Double = 12.0
+    /** The hub voltage is a separate bus transaction, so it is only read this often */
+    @JvmField
+    var sampleIntervalMs: Long = 100
+    /** Low-pass filter weight of each new sample (1.0 = no filtering) */
+    @JvmField
+    var filterAlpha: Double = 0.3
+    /** Below this the reading is treated as bad and outputs are not compensated */
+    @JvmField
+    var minimumVoltage: Double = 7.0
+}
+
 object RobotHardware {
     lateinit var opMode: LinearOpMode
     lateinit var runtime: ElapsedTime
@@ -46,7 +67,28 @@ object RobotHardware {
     lateinit var colorSensorLeft: RevColorSensorV3
     lateinit var colorSensorRight: ColorSensor
 
+    // Hubs (bulk caching in MANUAL mode, cleared once per HardwareCycle)
+    lateinit var allHubs: List<LynxModule>
+
+    // Battery voltage, sampled by refreshBulkData(); null if the robot has none configured
+    var voltageSensor: VoltageSensor? = null
+    private var lastVoltageNanos = 0L
+    private var filteredVoltage = 0.0
+
+    /**
+     * Latest bulk-read encoder data. Safe to read from any thread.
+     * Refreshed by HardwareCycle; never read encoders from the motors directly.
+     */
+    @Volatile
+    var snapshot: HardwareSnapshot = HardwareSnapshot.EMPTY
+        private set
+
     private fun setHardware() {
+        allHubs = opMode.hardwareMap.getAll(LynxModule::class.java)
+        for (hub in allHubs) {
+            hub.bulkCachingMode = LynxModule.BulkCachingMode.MANUAL
+        }
+
         leftFront = MotorEx(opMode.hardwareMap, "leftFrontDrive").apply {
             setZeroPowerBehavior(Motor.ZeroPowerBehavior.BRAKE)
         }
@@ -91,17 +133,93 @@ object RobotHardware {
         colorSensorBack = opMode.hardwareMap.get(ColorSensor::class.java, "colorSensorBack")
         colorSensorLeft = opMode.hardwareMap.get(RevColorSensorV3::class.java, "colorSensorLeft")
         colorSensorRight = opMode.hardwareMap.get(ColorSensor::class.java, "colorSensorRight")
+
+        voltageSensor = opMode.hardwareMap.voltageSensor.iterator().let { if (it.hasNext()) it.next() else null }
+        lastVoltageNanos = 0L
+        filteredVoltage = 0.0
     }
 
+    /** Servo positions set at init; RobotOutputs starts from the same values */
+    const val KICKER_INITIAL_POSITION = 0.0
+    const val TURRET_SERVO_INITIAL_POSITION = 0.5
+
     private fun initHardware() {
-        kickerServo.set(0.0);
-        turretTurnServo.set(0.5)
+        kickerServo.set(KICKER_INITIAL_POSITION)
+        turretTurnServo.set(TURRET_SERVO_INITIAL_POSITION)
+    }
+
+    /**
+     * Do one bulk read per hub and publish the result as a new snapshot.
+     * Only HardwareCycle should call this (and init(), before threads start),
+     * since clearing the cache under another reader would force extra reads.
+     */
+    fun refreshBulkData(): HardwareSnapshot {
+        for (hub in allHubs) {
+            hub.clearBulkCache()
+        }
+
+        // The first encoder read on each hub triggers its bulk read, the rest hit the cache.
+        // Traced one by one so the timeline shows which read paid for each hub's transaction.
+        val leftFrontPosition = Tracer.trace("leftFront", Tracer.HARDWARE_READ) { leftFront.currentPosition }
+        val leftBackPosition = Tracer.trace("leftBack", Tracer.HARDWARE_READ) { leftBack.currentPosition }
+        val rightFrontPosition = Tracer.trace("rightFront", Tracer.HARDWARE_READ) { rightFront.currentPosition }
+        val rightBackPosition = Tracer.trace("rightBack", Tracer.HARDWARE_READ) { rightBack.currentPosition }
+        val turretTurnPosition = Tracer.trace("turretTurnMotor", Tracer.HARDWARE_READ) { turretTurnMotor.currentPosition }
+        val shooterLeftVelocity = Tracer.trace("shooterLeft", Tracer.HARDWARE_READ) { turretShooterLeftMotor.correctedVelocity }
+        val shooterRightVelocity = Tracer.trace("shooterRight", Tracer.HARDWARE_READ) { turretShooterRightMotor.correctedVelocity }
+        val spindexerPosition = Tracer.trace("spindexer position", Tracer.HARDWARE_READ) { spindexterMotor.currentPosition }
+        val spindexerVelocity = Tracer.trace("spindexer velocity", Tracer.HARDWARE_READ) { spindexterMotor.correctedVelocity }
+        val batteryVoltage = sampleVoltage()
+
+        val next = HardwareSnapshot(
+            timestampNanos = System.nanoTime(),
+            sequence = snapshot.sequence + 1,
+            leftFrontPosition = leftFrontPosition,
+            leftBackPosition = leftBackPosition,
+            rightFrontPosition = rightFrontPosition,
+            rightBackPosition = rightBackPosition,
+            turretTurnPosition = turretTurnPosition,
+            shooterLeftVelocity = shooterLeftVelocity,
+            shooterRightVelocity = shooterRightVelocity,
+            spindexerPosition = spindexerPosition,
+            spindexerVelocity = spindexerVelocity,
+            batteryVoltage = batteryVoltage,
+        )
+
+        snapshot = next
+        return next
+    }
+
+    /**
+     * Read the battery voltage every VoltageConfig.sampleIntervalMs and low-pass filter it.
+     * Between samples the last filtered value is reused.
+     */
+    private fun sampleVoltage(): Double {
+        val sensor = voltageSensor ?: return 0.0
+        val now = System.nanoTime()
+        if (lastVoltageNanos != 0L &&
+            now - lastVoltageNanos < TimeUnit.MILLISECONDS.toNanos(VoltageConfig.sampleIntervalMs)
+        ) {
+            return filteredVoltage
+        }
+        lastVoltageNanos = now
+
+        val raw = Tracer.trace("voltage", Tracer.HARDWARE_READ) { sensor.voltage }
+        if (raw < VoltageConfig.minimumVoltage) return filteredVoltage
+        filteredVoltage = if (filteredVoltage == 0.0) {
+            raw
+        } else {
+            filteredVoltage + VoltageConfig.filterAlpha.coerceIn(0.0, 1.0) * (raw - filteredVoltage)
+        }
+        return filteredVoltage
     }
 
     fun init(opModeInput: LinearOpMode, runtimeInput: ElapsedTime) {
         opMode = opModeInput
         runtime = runtimeInput
+        snapshot = HardwareSnapshot.EMPTY
         setHardware()
         initHardware()
+        refreshBulkData()
     }
 }
@@ -0,0 +1,270 @@
+package teamcode.robot.core
+
+import com.bylazar.configurables.annotations.Configurable
+import teamcode.telemetry.Tracer
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.concurrent.Volatile
+import kotlin.math.abs
+
+@Configurable
+object OutputConfig {
+    /** Writes closer than this to the last value sent are dropped */
+    @JvmField
+    var epsilon: Double = 0.005
+    /** Resend the requested value at least this often even if it hasn't changed */
+    @JvmField
+    var refreshIntervalMs: Long = 250
+}
+
+/**
+ * Sends one value to one actuator. A fun interface instead of a lambda
+ * so the value is passed as a primitive double.
+ */
+fun interface OutputWriter {
+    fun write(value: Double)
+}
+
+/**
+ * One coalesced actuator output.
+ *
+ * set() only records the requested value; flush() sends it to the hardware if it
+ * moved more than OutputConfig.epsilon from the last value sent, or if the last
+ * write is older than OutputConfig.refreshIntervalMs. Only the latest value set
+ * between two flushes is sent.
+ *
+ * set() and get() are safe from any thread; flush() must only be called by one thread.
+ */
+class CoalescedOutput(
+    val name: String,
+    /** What this output powers, for PowerArbiter; null if it draws no budgeted current */
+    @Volatile var powerLoad: PowerLoad?,
+    /** Value the hardware was initialized to, so get() starts from it; NaN if none */
+    initial: Double = Double.NaN,
+    private val writer: OutputWriter
+) {
+    @Volatile
+    private var requested: Double = initial
+
+    /**
+     * Scale this output by VoltageConfig.nominalVoltage / battery voltage when it is
+     * flushed, so the same requested power does the same work at any battery level.
+     * For motor powers only, not servo positions. Requested values stay uncompensated.
+     */
+    @Volatile
+    var voltageCompensated: Boolean = false
+
+    // Owned by the flushing thread
+    private var sent: Double = Double.NaN
+    private var lastSentNanos: Long = 0L
+
+    /** Whether a set() happened since the last flush */
+    private val pending = AtomicBoolean()
+    private val overwrittenCount = AtomicLong()
+
+    /** Writes actually sent to the hardware, including refreshes and forced writes */
+    @Volatile
+    var issued: Long = 0
+        private set
+
+    /** Requests a flush dropped because they were within epsilon of the last value sent */
+    @Volatile
+    var suppressed: Long = 0
+        private set
+
+    /** Requests replaced by a newer set() before a flush picked them up */
+    val overwritten: Long
+        get() = overwrittenCount.get()
+
+    /**
+     * Request a new output value. Sent on the next flush.
+     */
+    fun set(value: Double) {
+        requested = value
+        if (pending.getAndSet(true)) overwrittenCount.incrementAndGet()
+    }
+
+    /**
+     * Last requested value (not read from the hardware), or the initial value if nothing
+     * was set yet, or 0.0 if there is neither.
+     */
+    fun get(): Double {
+        val value = requested
+        return if (value.isNaN()) 0.0 else value
+    }
+
+    /**
+     * The value flush() would send before power limiting, or NaN if nothing was set yet.
+     * @param voltageScale Factor applied if voltageCompensated
+     */
+    fun target(voltageScale: Double): Double {
+        val value = requested
+        return if (voltageCompensated) (value * voltageScale).coerceIn(-1.0, 1.0) else value
+    }
+
+    /**
+     * Send the requested value if it changed or is due for a refresh.
+     * @param nowNanos Current System.nanoTime()
+     * @param force Send even if unchanged
+     * @param voltageScale Factor applied if voltageCompensated
+     * @param powerScale PowerArbiter throttle for this output's load
+     */
+    fun flush(nowNanos: Long, force: Boolean = false, voltageScale: Double = 1.0, powerScale: Double = 1.0) {
+        val requestedSinceFlush = pending.getAndSet(false)
+        val target = target(voltageScale)
+        if (target.isNaN()) return
+        val value = target * powerScale
+
+        if (!force && !sent.isNaN()) {
+            val withinEpsilon = abs(value - sent) <= OutputConfig.epsilon
+            val fresh = nowNanos - lastSentNanos < TimeUnit.MILLISECONDS.toNanos(OutputConfig.refreshIntervalMs)
+            if (withinEpsilon && fresh) {
+                if (requestedSinceFlush) suppressed++
+                return
+            }
+        }
+
+        Tracer.trace(name, Tracer.HARDWARE_WRITE) { writer.write(value) }
+        sent = value
+        lastSentNanos = nowNanos
+        issued++
+    }
+
+    fun resetCounters() {
+        overwrittenCount.set(0)
+        issued = 0
+        suppressed = 0
+    }
+}
+
+/**
+ * Output stage in front of the RobotHardware actuators.
+ *
+ * Subsystems write actuator values here instead of calling set() on the
+ * MotorEx/ServoEx/CRServoEx handles directly. HardwareCycle flushes all outputs
+ * once per cycle, so repeated identical writes cost no Lynx commands.
+ *
+ * Usage:
+ * ```
+ * RobotOutputs.intakeLeft.set(-1.0)
+ * ```
+ *
+ * Motor outputs can opt in to battery voltage compensation, applied at flush time
+ * from the voltage HardwareCycle already sampled - no extra bus reads:
+ * ```
+ * RobotOutputs.compensateVoltage(RobotOutputs.shooterLeft, RobotOutputs.shooterRight)
+ * ```
+ *
+ * Before each flush PowerArbiter estimates the total current of the requested
+ * outputs and throttles low-priority loads if it is over budget.
+ */
+object RobotOutputs {
+    // Movement Motors
+    lateinit var leftFront: CoalescedOutput
+    lateinit var leftBack: CoalescedOutput
+    lateinit var rightFront: CoalescedOutput
+    lateinit var rightBack: CoalescedOutput
+
+    // Turret
+    lateinit var turretTurnMotor: CoalescedOutput
+    lateinit var shooterLeft: CoalescedOutput
+    lateinit var shooterRight: CoalescedOutput
+
+    // Spindexer
+    lateinit var spindexer: CoalescedOutput
+
+    // Servo
+    lateinit var kicker: CoalescedOutput
+    lateinit var turretTurnServo: CoalescedOutput
+
+    // Intake
+    lateinit var intakeLeft: CoalescedOutput
+    lateinit var intakeRight: CoalescedOutput
+
+    /** Every output, in flush order */
+    var all: Array<CoalescedOutput> = emptyArray()
+        private set
+
+    /**
+     * Create outputs for the current RobotHardware handles. Called by ThreadedOpMode
+     * right after RobotHardware.init().
+     */
+    fun init() {
+        leftFront = CoalescedOutput("leftFront", PowerLoad.DRIVE) { RobotHardware.leftFront.set(it) }
+        leftBack = CoalescedOutput("leftBack", PowerLoad.DRIVE) { RobotHardware.leftBack.set(it) }
+        rightFront = CoalescedOutput("rightFront", PowerLoad.DRIVE) { RobotHardware.rightFront.set(it) }
+        rightBack = CoalescedOutput("rightBack", PowerLoad.DRIVE) { RobotHardware.rightBack.set(it) }
+
+        turretTurnMotor = CoalescedOutput("turretTurnMotor", PowerLoad.TURRET) { RobotHardware.turretTurnMotor.set(it) }
+        shooterLeft = CoalescedOutput("shooterLeft", PowerLoad.IDLE_SHOOTER) { RobotHardware.turretShooterLeftMotor.set(it) }
+        shooterRight = CoalescedOutput("shooterRight", PowerLoad.IDLE_SHOOTER) { RobotHardware.turretShooterRightMotor.set(it) }
+
+        spindexer = CoalescedOutput("spindexer", PowerLoad.SPINDEXER) { RobotHardware.spindexterMotor.set(it) }
+
+        kicker = CoalescedOutput("kicker", null, RobotHardware.KICKER_INITIAL_POSITION) {
+            RobotHardware.kickerServo.set(it)
+        }
+        turretTurnServo = CoalescedOutput("turretTurnServo", null, RobotHardware.TURRET_SERVO_INITIAL_POSITION) {
+            RobotHardware.turretTurnServo.set(it)
+        }
+
+        intakeLeft = CoalescedOutput("intakeLeft", PowerLoad.INTAKE) { RobotHardware.intakeServoLeft.set(it) }
+        intakeRight = CoalescedOutput("intakeRight", PowerLoad.INTAKE) { RobotHardware.intakeServoRight.set(it) }
+
+        all = arrayOf(
+            leftFront, leftBack, rightFront, rightBack,
+            turretTurnMotor, shooterLeft, shooterRight,
+            spindexer,
+            kicker, turretTurnServo,
+            intakeLeft, intakeRight,
+        )
+    }
+
+    /**
+     * Send every pending output that changed or is due for a refresh.
+     * Only HardwareCycle calls this while threads run.
+     * @param force Send every output regardless of epsilon, e.g. the final stop writes
+     */
+    fun flush(force: Boolean = false) {
+        val now = System.nanoTime()
+        val scale = voltageScale(RobotHardware.snapshot.batteryVoltage)
+        PowerArbiter.arbitrate(all, scale)
+        for (output in all) {
+            output.flush(now, force, scale, PowerArbiter.scale(output.powerLoad))
+        }
+    }
+
+    /**
+     * Factor that normalizes compensated outputs to VoltageConfig.nominalVoltage,
+     * or 1.0 while there is no valid reading.
+     */
+    fun voltageScale(batteryVoltage: Double): Double {
+        if (batteryVoltage < VoltageConfig.minimumVoltage) return 1.0
+        return VoltageConfig.nominalVoltage / batteryVoltage
+    }
+
+    /**
+     * Turn on voltage compensation for [outputs].
+     */
+    fun compensateVoltage(vararg outputs: CoalescedOutput) {
+        for (output in outputs) {
+            output.voltageCompensated = true
+        }
+    }
+
+    /** Total writes sent to the hardware */
+    fun issuedCount(): Long = all.sumOf { it.issued }
+
+    /** Total requests dropped within epsilon */
+    fun suppressedCount(): Long = all.sumOf { it.suppressed }
+
+    /** Total requests replaced before a flush */
+    fun overwrittenCount(): Long = all.sumOf { it.overwritten }
+
+    fun resetCounters() {
+        for (output in all) {
+            output.resetCounters()
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package teamcode.robot.core
+
+import kotlin.math.abs
+import kotlin.math.sqrt
+
+/**
+ * Trapezoidal motion profile for a single move: accelerate at maxAcceleration,
+ * cruise at maxVelocity, decelerate to a stop at the goal. Short moves that never
+ * reach maxVelocity become a triangle.
+ *
+ * Units are whatever the caller uses (e.g. motor ticks and seconds).
+ * Reused between moves and sampled in place, so a control loop allocates nothing:
+ * ```
+ * profile.plan(start, goal, startVelocity, maxVelocity, maxAcceleration)
+ * ...
+ * profile.sample(secondsSinceStart)
+ * pid.setpoint = profile.position
+ * ```
+ */
+class TrapezoidProfile {
+    var start: Double = 0.0
+        private set
+    var goal: Double = 0.0
+        private set
+
+    /** Total time of the move in seconds */
+    var duration: Double = 0.0
+        private set
+
+    // Last sample
+    var position: Double = 0.0
+        private set
+    var velocity: Double = 0.0
+        private set
+    var acceleration: Double = 0.0
+        private set
+
+    private var direction = 1.0
+    private var startSpeed = 0.0
+    private var peakSpeed = 0.0
+    private var accel = 0.0
+    private var accelTime = 0.0
+    private var cruiseTime = 0.0
+    private var decelTime = 0.0
+
+    /**
+     * Plan a move from [start] to [goal].
+     * @param startVelocity Current velocity, so a move can be replanned while running.
+     *   Velocity away from the goal is dropped, and so is speed that could not stop in time.
+     */
+    fun plan(start: Double, goal: Double, startVelocity: Double, maxVelocity: Double, maxAcceleration: Double) {
+        require(maxVelocity > 0.0 && maxAcceleration > 0.0) { "maxVelocity and maxAcceleration must be > 0" }
+        this.start = start
+        this.goal = goal
+
+        val distance = abs(goal - start)
+        direction = if (goal >= start) 1.0 else -1.0
+        accel = maxAcceleration
+
+        var v0 = startVelocity * direction
+        if (v0 < 0.0) v0 = 0.0
+        v0 = minOf(v0, maxVelocity, sqrt(2.0 * maxAcceleration * distance))
+        startSpeed = v0
+
+        val accelDistance = (maxVelocity * maxVelocity - v0 * v0) / (2.0 * maxAcceleration)
+        val decelDistance = maxVelocity * maxVelocity / (2.0 * maxAcceleration)
+        if (accelDistance + decelDistance > distance) {
+            // Triangle: peak where the accel and decel ramps meet
+            peakSpeed = sqrt((2.0 * maxAcceleration * distance + v0 * v0) / 2.0)
+            cruiseTime = 0.0
+        } else {
+            peakSpeed = maxVelocity
+            cruiseTime = (distance - accelDistance - decelDistance) / maxVelocity
+        }
+        accelTime = (peakSpeed - v0) / maxAcceleration
+        decelTime = peakSpeed / maxAcceleration
+        duration = accelTime + cruiseTime + decelTime
+
+        sample(0.0)
+    }
+
+    /**
+     * Update position, velocity and acceleration for [t] seconds after the start.
+     */
+    fun sample(t: Double) {
+        val distance: Double
+        val speed: Double
+        val accelNow: Double
+        when {
+            t <= 0.0 -> {
+                distance = 0.0
+                speed = startSpeed
+                accelNow = if (accelTime > 0.0) accel else 0.0
+            }
+            t < accelTime -> {
+                distance = startSpeed * t + 0.5 * accel * t * t
+                speed = startSpeed + accel * t
+                accelNow = accel
+            }
+            t < accelTime + cruiseTime -> {
+                val accelDistance = startSpeed * accelTime + 0.5 * accel * accelTime * accelTime
+                distance = accelDistance + peakSpeed * (t - accelTime)
+                speed = peakSpeed
+                accelNow = 0.0
+            }
+            t < duration -> {
+                val remaining = duration - t
+                distance = abs(goal - start) - 0.5 * accel * remaining * remaining
+                speed = accel * remaining
+                accelNow = -accel
+            }
+            else -> {
+                distance = abs(goal - start)
+                speed = 0.0
+                accelNow = 0.0
+            }
+        }
+        position = start + direction * distance
+        velocity = direction * speed
+        acceleration = direction * accelNow
+    }
+
+    fun isFinished(t: Double): Boolean = t >= duration
+}
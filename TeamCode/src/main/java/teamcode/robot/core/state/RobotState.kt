@@ -1,5 +1,6 @@
 package teamcode.robot.core.state
 
+import teamcode.telemetry.DataLogger
 import kotlin.concurrent.Volatile
 
 // Forward declaration to avoid circular dependency
@@ -28,6 +29,8 @@ object RobotStateMachine {
     
     @Volatile
     private var previousState: RobotState = RobotState.IDLE
+
+    private val logChannel = DataLogger.channel("RobotState")
     
     /**
      * Get the current robot state.
@@ -52,7 +55,8 @@ object RobotStateMachine {
                 val oldState = currentState
                 previousState = oldState
                 currentState = newState
-                
+                DataLogger.log(logChannel, newState)
+
                 // Notify transition handlers
                 StateTransitionRegistry.notifyTransition(oldState, newState)
             }
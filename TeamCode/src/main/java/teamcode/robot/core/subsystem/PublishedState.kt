@@ -0,0 +1,103 @@
+package teamcode.robot.core.subsystem
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Preallocated primitive slots backing a PublishedState.
+ * Every value is stored as a long; each access is a volatile read or write.
+ */
+class StateSlots internal constructor(size: Int) {
+    private val slots = AtomicLongArray(size)
+
+    fun putLong(index: Int, value: Long) = slots.set(index, value)
+    fun getLong(index: Int): Long = slots.get(index)
+
+    fun putDouble(index: Int, value: Double) = slots.set(index, value.toRawBits())
+    fun getDouble(index: Int): Double = Double.fromBits(slots.get(index))
+
+    fun putInt(index: Int, value: Int) = slots.set(index, value.toLong())
+    fun getInt(index: Int): Int = slots.get(index).toInt()
+
+    fun putBoolean(index: Int, value: Boolean) = slots.set(index, if (value) 1L else 0L)
+    fun getBoolean(index: Int): Boolean = slots.get(index) != 0L
+}
+
+/**
+ * A state record with a fixed layout of primitive fields.
+ *
+ * Subclasses hold their fields as plain vars (and preallocated arrays) and copy
+ * them to and from StateSlots by index. One instance is owned by the writer;
+ * each reader keeps its own instance to read into, so nothing is allocated per frame.
+ */
+abstract class StateRecord {
+    /** Number of slots writeTo() / readFrom() use */
+    abstract val slotCount: Int
+
+    abstract fun writeTo(slots: StateSlots)
+
+    abstract fun readFrom(slots: StateSlots)
+}
+
+/**
+ * Lock-free single-writer state publication (seqlock).
+ *
+ * The writer bumps the sequence to odd, writes the record's slots and bumps it back to
+ * even. A reader copies the slots and retries if the sequence was odd or changed while
+ * it was copying, so it always sees one complete record, never a mix of two frames.
+ * Reads never block the writer and never allocate.
+ *
+ * Usage:
+ * ```
+ * // Producer
+ * private val state = PublishedState(VisionState())
+ * private val writeState = VisionState()
+ * state.publish(writeState)
+ *
+ * // Reader
+ * private val visionState = VisionState()
+ * vision.state.read(visionState)
+ * ```
+ *
+ * @param prototype Any instance of the record type, used to size the slots
+ */
+class PublishedState<T : StateRecord>(prototype: T) {
+    private val sequence = AtomicLong()
+    private val slots = StateSlots(prototype.slotCount)
+
+    /**
+     * Number of records published so far.
+     */
+    val version: Long
+        get() = sequence.get() ushr 1
+
+    /**
+     * Publish [record]. Only one thread may call this.
+     */
+    fun publish(record: T) {
+        sequence.incrementAndGet()
+        record.writeTo(slots)
+        sequence.incrementAndGet()
+    }
+
+    /**
+     * Copy the latest complete record into [into].
+     * @return The version of the record read (0 if nothing was published yet)
+     */
+    fun read(into: T): Long {
+        var attempts = 0
+        while (true) {
+            val before = sequence.get()
+            if (before and 1L == 0L) {
+                into.readFrom(slots)
+                if (sequence.get() == before) return before ushr 1
+            }
+            // Writer is mid-publish; it only takes a few microseconds
+            if (++attempts % SPINS_BEFORE_YIELD == 0) Thread.yield()
+        }
+    }
+
+    companion object {
+        private const val SPINS_BEFORE_YIELD = 64
+    }
+}
@@ -1,21 +1,28 @@
 package teamcode.robot.core.subsystem
 
+import teamcode.robot.command.Command
+import teamcode.robot.command.CommandScheduler
 import teamcode.robot.core.state.RobotStateMachine
 import teamcode.robot.core.state.RobotState
+import teamcode.telemetry.EnumChannel
+import teamcode.threading.LoopMode
 import teamcode.threading.RobotThread
+import java.util.concurrent.atomic.AtomicReference
 import kotlin.concurrent.Volatile
 
 /**
  * Base class for all robot subsystems.
  * 
  * Design principles:
- * - Subsystems run on their own threads
+ * - Subsystems run on their own threads (or share a MultiRateExecutive in COOPERATIVE mode)
  * - Commands are optional - subsystems can run continuously
  * - Thread-safe by default
  * - Clean separation of concerns
  * 
  * Architecture:
  * - Hardware management happens in periodic()
+ * - Subsystems can wake each other with publish() / dependsOn()
+ * - Cross-thread state is shared through PublishedState records (lock-free, no allocation)
  * - Commands can call subsystem methods directly (cross-thread)
  * - State machine integration for high-level coordination
  * - Subsystem methods must ensure thread-safety
@@ -25,7 +32,35 @@ abstract class Subsystem(
     updateIntervalMs: Long = 20
 ) : RobotThread(name, updateIntervalMs) {
     
+    /**
+     * Small per-class index (0-63) used for command requirement bitmasks.
+     */
+    val subsystemIndex: Int = indexFor(javaClass)
+
+    /**
+     * This subsystem's bit in Command.requirementMask.
+     */
+    val requirementBit: Long = 1L shl subsystemIndex
+
+    /**
+     * Next command to run on this thread (CommandAffinity.SUBSYSTEM), handed over by the scheduler.
+     */
+    private val incomingCommand = AtomicReference<Command?>(null)
+
+    private val robotStateChannel = EnumChannel<RobotState>("State")
+
+    /**
+     * Command currently running on this thread. Only touched by this thread.
+     */
+    private var boundCommand: Command? = null
+
+    /** bindGeneration of boundCommand's current run */
+    private var boundGeneration = 0
+
     init {
+        // Subsystems run on an absolute schedule so their rate doesn't drift with hardware stalls
+        loopMode = LoopMode.FIXED_RATE
+
         // Automatically register with ThreadedOpMode if available
         teamcode.threading.ThreadedOpMode.registerThread(this)
     }
@@ -50,7 +85,7 @@ abstract class Subsystem(
      * Update telemetry for this subsystem.
      */
     protected open fun updateTelemetry() {
-        telemetry.addData("State", RobotStateMachine.getState().name)
+        telemetry.addData(robotStateChannel, RobotStateMachine.getState())
     }
     
     /**
@@ -58,6 +93,9 @@ abstract class Subsystem(
      * Runs periodic updates for this subsystem.
      */
     final override fun runLoop() {
+        // Run a command bound to this subsystem first, so periodic() sees what it set
+        runBoundCommand()
+
         // Run periodic updates
         periodic()
         
@@ -68,12 +106,122 @@ abstract class Subsystem(
     override fun onStart() {
         init()
     }
+
+    /**
+     * Hand [command] over to run on this thread. Called by the CommandScheduler,
+     * which has already resolved conflicts; wakes this thread so it starts immediately.
+     */
+    internal fun bindCommand(command: Command) {
+        incomingCommand.set(command)
+        wake()
+    }
+
+    /**
+     * Run the bound command's lifecycle on this thread: interrupt it if the scheduler
+     * cancelled or replaced it, initialize a newly bound one, then periodic/isFinished/end.
+     */
+    private fun runBoundCommand() {
+        var incoming = incomingCommand.getAndSet(null)
+        // The scheduler bumps the generation before handing over, so this is the newest bind
+        val incomingGeneration = incoming?.bindGeneration ?: 0
+        val current = boundCommand
+
+        if (incoming != null && incoming === current && incomingGeneration == boundGeneration) {
+            // Same run handed over twice (rebound while this thread was picking it up)
+            incoming = null
+        }
+
+        if (current != null && (incoming != null || current.cancelRequested)) {
+            endBoundCommand(current, boundGeneration, interrupted = true)
+        }
+
+        if (incoming != null) {
+            if (incoming.cancelRequested) {
+                // Cancelled before it ever started
+                incoming.doneGeneration = incomingGeneration
+            } else {
+                try {
+                    incoming.initializeInternal()
+                    boundCommand = incoming
+                    boundGeneration = incomingGeneration
+                } catch (e: Exception) {
+                    System.err.println("Error initializing ${incoming.javaClass.simpleName} on $name: ${e.message}")
+                    e.printStackTrace()
+                    incoming.doneGeneration = incomingGeneration
+                }
+            }
+        }
+
+        val command = boundCommand ?: return
+        try {
+            command.periodicInternal()
+            if (command.isFinishedInternal()) {
+                endBoundCommand(command, boundGeneration, interrupted = false)
+            }
+        } catch (e: Exception) {
+            System.err.println("${command.javaClass.simpleName} threw on $name, canceling: ${e.message}")
+            e.printStackTrace()
+            endBoundCommand(command, boundGeneration, interrupted = true)
+        }
+    }
+
+    /**
+     * End [command]'s run [generation]. Only that run is marked done, so if the scheduler
+     * has already bound the same instance again the new run is not reaped.
+     */
+    private fun endBoundCommand(command: Command, generation: Int, interrupted: Boolean) {
+        try {
+            command.endInternal(interrupted)
+        } catch (e: Exception) {
+            System.err.println("Error ending ${command.javaClass.simpleName} on $name: ${e.message}")
+            e.printStackTrace()
+        } finally {
+            boundCommand = null
+            command.doneGeneration = generation
+            // A replacement may be waiting for this subsystem
+            if (command.cancelRequested) CommandScheduler.wakeForReap()
+        }
+    }
+
+    /**
+     * Subsystem loops are short and non-blocking, so they can share an executive thread
+     * when ThreadManager runs in ExecutionMode.COOPERATIVE.
+     */
+    override val canRunCooperatively: Boolean
+        get() = true
     
     override fun onStop() {
         // Note: Do not call stop() here - the thread is already stopping gracefully
         // The run() loop will exit when isRunning becomes false
     }
     
+    /**
+     * Get another subsystem (waiting for it like current()) and run this subsystem's loop
+     * every time it calls publish(), in addition to the regular timer ticks.
+     * 
+     * Compare the producer's publishSequence with the last one processed to tell
+     * a publish from a timer tick.
+     * 
+     * Usage in init():
+     * ```
+     * vision = dependsOn<VisionSubsystem>()
+     * ```
+     */
+    protected inline fun <reified T : RobotThread> dependsOn(timeoutMs: Long? = null): T {
+        val producer = current<T>(timeoutMs = timeoutMs)
+        producer.addConsumer(this)
+        return producer
+    }
+
+    /**
+     * Publish a new state record for cross-thread readers and wake this subsystem's consumers.
+     * Call once per cycle from periodic() after filling [record].
+     */
+    protected fun <T : StateRecord> publishState(state: PublishedState<T>, record: T) {
+        state.publish(record)
+        publish()
+    }
+
     /**
      * Convenience methods for state machine access.
      */
@@ -81,5 +229,26 @@ abstract class Subsystem(
     protected fun isRobotState(state: RobotState): Boolean = RobotStateMachine.isState(state)
     protected fun wasRobotState(state: RobotState): Boolean = RobotStateMachine.wasState(state)
 
+    companion object {
+        /** Max subsystem classes, one bit each in a Long requirement mask */
+        const val MAX_SUBSYSTEMS = 64
+
+        private val indices = HashMap<Class<out Subsystem>, Int>()
+
+        /**
+         * Index for a subsystem class, assigned on first registration and stable
+         * for the lifetime of the app (the same class keeps its bit across OpModes).
+         */
+        private fun indexFor(type: Class<out Subsystem>): Int {
+            synchronized(indices) {
+                indices[type]?.let { return it }
+                val index = indices.size
+                check(index < MAX_SUBSYSTEMS) { "More than $MAX_SUBSYSTEMS subsystem classes" }
+                indices[type] = index
+                return index
+            }
+        }
+    }
+
 }
 
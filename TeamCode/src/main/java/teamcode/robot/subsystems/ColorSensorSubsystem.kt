@@ -4,6 +4,8 @@ import com.qualcomm.robotcore.hardware.ColorSensor
 import org.firstinspires.ftc.robotcore.external.navigation.DistanceUnit
 import teamcode.robot.core.RobotHardware
 import teamcode.robot.core.subsystem.Subsystem
+import teamcode.telemetry.EnumChannel
+import teamcode.telemetry.LazyChannel
 
 enum class BallColors {
     PURPLE,
@@ -32,6 +34,21 @@ class ColorSensorSubsystem: Subsystem("ColorSensor", 10) {
         private set
 
 
+    private val leftColorChannel = EnumChannel<BallColors>("Left Color")
+    private val backColorChannel = EnumChannel<BallColors>("Back Color")
+    private val rightColorChannel = EnumChannel<BallColors>("Right Color")
+
+    // I2C reads, so only done when the publisher actually sends them
+    private val leftRgbChannel = LazyChannel("Left RGB") {
+        "R:${RobotHardware.colorSensorLeft.getDistance(DistanceUnit.CM)} G:${RobotHardware.colorSensorLeft.green()} B:${RobotHardware.colorSensorLeft.blue()}"
+    }
+    private val backRgbChannel = LazyChannel("Back RGB") {
+        "R:${RobotHardware.colorSensorBack.red()} G:${RobotHardware.colorSensorBack.green()} B:${RobotHardware.colorSensorBack.blue()}"
+    }
+    private val rightRgbChannel = LazyChannel("Right RGB") {
+        "R:${RobotHardware.colorSensorRight.red()} G:${RobotHardware.colorSensorRight.green()} B:${RobotHardware.colorSensorRight.blue()}"
+    }
+
     private fun getColor(colorSensor: ColorSensor): BallColors {
         val red = colorSensor.red()
         val rawOptiocal = colorSensor
@@ -54,16 +71,22 @@ class ColorSensorSubsystem: Subsystem("ColorSensor", 10) {
         val backColor = getColor(RobotHardware.colorSensorBack)
         val rightColor = getColor(RobotHardware.colorSensorRight)
 
-        currentColors = ColorSensorResult(leftColor, backColor, rightColor)
+        val colors = currentColors
+        if (leftColor != colors.left || backColor != colors.back || rightColor != colors.right) {
+            currentColors = ColorSensorResult(leftColor, backColor, rightColor)
+            // Wake subsystems that depend on ball colors
+            publish()
+        }
     }
 
     override fun updateTelemetry() {
         telemetry.addData("Enabled", isEnabled)
-        telemetry.addData("Left Color", currentColors.left.name)
-        telemetry.addData("Back Color", currentColors.back.name)
-        telemetry.addData("Right Color", currentColors.right.name)
-        telemetry.addData("Left RGB", "R:${RobotHardware.colorSensorLeft.getDistance(DistanceUnit.CM)} G:${RobotHardware.colorSensorLeft.green()} B:${RobotHardware.colorSensorLeft.blue()}")
-        telemetry.addData("Back RGB", "R:${RobotHardware.colorSensorBack.red()} G:${RobotHardware.colorSensorBack.green()} B:${RobotHardware.colorSensorBack.blue()}")
-        telemetry.addData("Right RGB", "R:${RobotHardware.colorSensorRight.red()} G:${RobotHardware.colorSensorRight.green()} B:${RobotHardware.colorSensorRight.blue()}")
+        val colors = currentColors
+        telemetry.addData(leftColorChannel, colors.left)
+        telemetry.addData(backColorChannel, colors.back)
+        telemetry.addData(rightColorChannel, colors.right)
+        telemetry.addData(leftRgbChannel)
+        telemetry.addData(backRgbChannel)
+        telemetry.addData(rightRgbChannel)
     }
 }
\ No newline at end of file
@@ -1,6 +1,6 @@
 package teamcode.robot.subsystems
 
-import teamcode.robot.core.RobotHardware
+import teamcode.robot.core.RobotOutputs
 import teamcode.robot.core.state.RobotState
 import teamcode.robot.core.state.RobotStateMachine
 import teamcode.robot.core.subsystem.Subsystem
@@ -8,13 +8,13 @@ import teamcode.robot.core.subsystem.Subsystem
 class IntakeSubsystem: Subsystem("Intake",10) {
     override fun periodic() {
         if(RobotStateMachine.isState(RobotState.INTAKING)){
-            RobotHardware.intakeServoLeft.set(-1.0);
-            RobotHardware.intakeServoRight.set(1.0);
+            RobotOutputs.intakeLeft.set(-1.0);
+            RobotOutputs.intakeRight.set(1.0);
 
         }else{
-            RobotHardware.intakeServoLeft.set(0.0);
+            RobotOutputs.intakeLeft.set(0.0);
 
-            RobotHardware.intakeServoRight.set(0.0);
+            RobotOutputs.intakeRight.set(0.0);
 
         }
     }
@@ -1,7 +1,7 @@
 package teamcode.robot.subsystems
 
 import com.bylazar.configurables.annotations.Configurable
-import teamcode.robot.core.RobotHardware
+import teamcode.robot.core.RobotOutputs
 import teamcode.robot.core.state.RobotState
 import teamcode.robot.core.subsystem.Subsystem
 import teamcode.robot.core.utils.Timer
@@ -38,14 +38,17 @@ class KickerSubsystem : Subsystem("Kicker", 20) {
     /**
      * Trigger the kicker mechanism
      * Called from teleop when button is pressed
+     * @return Whether the kicker started going up
      */
-
-    fun kickerUp(){
-        // Check if we're in shooting state and kicker is idle - start kicking
-        if (currentState == KickerState.IDLE && isRobotState(RobotState.SHOOTING)) {
+    fun kickerUp(): Boolean {
+        // Check if we're in shooting state, kicker is idle and the flywheel is at speed - start kicking
+        if (currentState == KickerState.IDLE && isRobotState(RobotState.SHOOTING) &&
+            current<ShooterSubsystem>().isReady
+        ) {
             currentState = KickerState.UP
-            return
+            return true
         }
+        return false
     }
 
     fun kickerDown(){
@@ -63,7 +66,7 @@ class KickerSubsystem : Subsystem("Kicker", 20) {
             return
         }
 
-        if (currentState == KickerState.IDLE && isRobotState(RobotState.SHOOTING)) {
+        if (currentState == KickerState.IDLE) {
             kickerUp()
             return
         }
@@ -79,13 +82,13 @@ class KickerSubsystem : Subsystem("Kicker", 20) {
     override fun periodic() {
         when (currentState) {
             KickerState.IDLE -> {
-                RobotHardware.kickerServo.set(KickerConfig.KickerIdlePosition)
+                RobotOutputs.kicker.set(KickerConfig.KickerIdlePosition)
             }
             KickerState.UP -> {
-                RobotHardware.kickerServo.set(KickerConfig.KickerUpPosition)
+                RobotOutputs.kicker.set(KickerConfig.KickerUpPosition)
             }
             KickerState.DOWN -> {
-                RobotHardware.kickerServo.set(KickerConfig.KickerIdlePosition)
+                RobotOutputs.kicker.set(KickerConfig.KickerIdlePosition)
                 if (timer.elapsedMillis() > KickerConfig.KickerDownDelayMillis) {
                     currentState = KickerState.IDLE
                     timer.stop()
@@ -3,7 +3,7 @@ package teamcode.robot.subsystems
 import com.qualcomm.robotcore.hardware.DcMotor
 import com.qualcomm.robotcore.hardware.Gamepad
 import dev.nextftc.hardware.powerable.SetPower
-import teamcode.robot.core.RobotHardware
+import teamcode.robot.core.RobotOutputs
 import teamcode.robot.core.subsystem.Subsystem
 import kotlin.concurrent.Volatile
 import kotlin.math.abs
@@ -90,14 +90,18 @@ class MovementSubsystem : Subsystem("Movement", 5) {
     }
     
     private fun stopMotors() {
-        RobotHardware.leftFront.set(0.0)
-        RobotHardware.rightFront.set(0.0)
-        RobotHardware.leftBack.set(0.0)
-        RobotHardware.rightBack.set(0.0)
+        RobotOutputs.leftFront.set(0.0)
+        RobotOutputs.rightFront.set(0.0)
+        RobotOutputs.leftBack.set(0.0)
+        RobotOutputs.rightBack.set(0.0)
     }
     
     override fun init() {
-
+        // Same stick input, same drive feel at any battery level
+        RobotOutputs.compensateVoltage(
+            RobotOutputs.leftFront, RobotOutputs.leftBack,
+            RobotOutputs.rightFront, RobotOutputs.rightBack,
+        )
     }
     
     override fun periodic() {
@@ -139,10 +143,10 @@ class MovementSubsystem : Subsystem("Movement", 5) {
         lb *= speedMultiplier
         rb *= speedMultiplier
         
-        RobotHardware.leftFront.set(lf)
-        RobotHardware.rightFront.set(rf)
-        RobotHardware.leftBack.set(lb)
-        RobotHardware.rightBack.set(rb)
+        RobotOutputs.leftFront.set(lf)
+        RobotOutputs.rightFront.set(rf)
+        RobotOutputs.leftBack.set(lb)
+        RobotOutputs.rightBack.set(rb)
     }
     
     override fun end() {
@@ -1,52 +1,236 @@
 package teamcode.robot.subsystems
 
 import com.bylazar.configurables.annotations.Configurable
+import teamcode.robot.core.PID
+import teamcode.robot.core.PowerArbiter
+import teamcode.robot.core.PowerLoad
 import teamcode.robot.core.RobotHardware
+import teamcode.robot.core.RobotOutputs
 import teamcode.robot.core.state.RobotState
 import teamcode.robot.core.subsystem.Subsystem
+import teamcode.telemetry.BoolChannel
+import teamcode.telemetry.DoubleChannel
+import teamcode.telemetry.EnumChannel
+import teamcode.telemetry.IntChannel
+import teamcode.telemetry.LazyChannel
 import kotlin.concurrent.Volatile
+import kotlin.math.abs
+import kotlin.math.sign
 
 @Configurable
 object ShooterConfig {
+    /** Flywheel speed while shooting, encoder ticks per second */
     @JvmField
-    var ShooterPower = 0.75
+    var TargetVelocity = 1600.0
+    /** Flywheel speed otherwise, so spin-up starts from a moving wheel */
     @JvmField
-    var ShooterIdlePower = 0.2
+    var IdleVelocity = 400.0
+    /** How fast the velocity setpoint ramps, ticks per second squared */
+    @JvmField
+    var MaxAcceleration = 6000.0
+
+    // Feedforward: power = kS * sign(v) + kV * v + kA * a
+    @JvmField
+    var kS = 0.04
+    @JvmField
+    var kV = 0.00043
+    @JvmField
+    var kA = 0.00002
+
+    // Feedback on the average wheel velocity
+    @JvmField
+    var kP = 0.002
+    @JvmField
+    var kI = 0.001
+    @JvmField
+    var kD = 0.0
+
+    /** Power moved from the faster motor to the slower one per tick/s of difference */
+    @JvmField
+    var kSync = 0.001
+
+    /** Both wheels within this many ticks/s of the target counts as at speed */
+    @JvmField
+    var ReadyBand = 40.0
+    /** How long both wheels must stay at speed before shooting is allowed */
+    @JvmField
+    var ReadyHoldMs = 80L
 }
 
 enum class  ShooterState {
     IDLE,
+    SPINNING_UP,
     SHOOTING_READY,
 }
 
 /**
  * Shooter subsystem.
- * Controls shooter motors for launching game pieces.
+ * Velocity-controlled flywheel for launching game pieces.
+ *
+ * Each cycle the setpoint ramps toward the target velocity, both motors get
+ * kS/kV/kA feedforward plus PID on the average encoder velocity, and a sync
+ * term shifts power from the faster motor to the slower one. currentState is
+ * SHOOTING_READY only once both wheels have held inside ShooterConfig.ReadyBand
+ * for ShooterConfig.ReadyHoldMs, so shots can go as soon as the wheel is at speed.
+ *
+ * [pacer] detects shots from the velocity dip and measures recovery time.
  */
-class ShooterSubsystem : Subsystem("Shooter", 20) {
+class ShooterSubsystem : Subsystem("Shooter", 10) {
 
     @Volatile
     var currentState: ShooterState = ShooterState.IDLE
         private set
 
+    /**
+     * Whether the wheel is at speed for a shot. Safe from any thread.
+     */
+    val isReady: Boolean
+        get() = currentState === ShooterState.SHOOTING_READY
+
+    /**
+     * Shot detection, recovery times and volley throughput.
+     */
+    val pacer = ShotPacer()
+
+    /** Output range is set every loop to what is left of 0..1 after the feedforward */
+    private val pid = PID(ShooterConfig.kP, ShooterConfig.kI, ShooterConfig.kD)
+
+    /** Ramped velocity setpoint (ticks/s) */
+    private var setpoint = 0.0
+    private var target = 0.0
+    private var lastNanos = 0L
+
+    /** When both wheels entered the ready band, or 0 while outside it */
+    private var inBandSinceNanos = 0L
+
+    // Last control outputs, for telemetry
+    private var feedforward = 0.0
+    private var feedback = 0.0
+    private var leftPower = 0.0
+    private var rightPower = 0.0
+
+    private val stateChannel = EnumChannel<ShooterState>("currentState")
+    private val readyChannel = BoolChannel("Ready")
+    private val targetChannel = DoubleChannel("Target Velocity", "%.0f")
+    private val setpointChannel = DoubleChannel("Setpoint", "%.0f")
+    private val leftVelocityChannel = DoubleChannel("Left Velocity", "%.0f")
+    private val rightVelocityChannel = DoubleChannel("Right Velocity", "%.0f")
+    private val errorChannel = DoubleChannel("Velocity Error", "%.0f")
+    private val feedforwardChannel = DoubleChannel("Feedforward", "%.3f")
+    private val feedbackChannel = DoubleChannel("Feedback", "%.3f")
+    private val leftPowerChannel = DoubleChannel("Left Power", "%.3f")
+    private val rightPowerChannel = DoubleChannel("Right Power", "%.3f")
+    private val shotsChannel = IntChannel("Shots")
+    private val recoveryChannel = DoubleChannel("Last Recovery (ms)", "%.0f")
+    private val dipChannel = DoubleChannel("Last Dip Velocity", "%.0f")
+    private val volleyShotsChannel = IntChannel("Volley Shots")
+    private val volleyRateChannel = DoubleChannel("Volley Balls/s", "%.2f")
+    private val volleyRecoveriesChannel = LazyChannel("Volley Recoveries (ms)") { pacer.volleyRecoveriesText() }
+
+    override fun init() {
+        // Feedforward gains are tuned at nominal voltage
+        RobotOutputs.compensateVoltage(RobotOutputs.shooterLeft, RobotOutputs.shooterRight)
+    }
+
     override fun periodic() {
+        val now = System.nanoTime()
+        val dt = if (lastNanos == 0L) 0.0 else (now - lastNanos) / 1e9
+        lastNanos = now
+
+        // Control shooter speed based on robot state
+        val shooting = isRobotState(RobotState.SHOOTING)
+        target = if (shooting) ShooterConfig.TargetVelocity else ShooterConfig.IdleVelocity
+
+        // An idle flywheel may be throttled under a brownout, a shooting one may not
+        val load = if (shooting) PowerLoad.SHOOTER else PowerLoad.IDLE_SHOOTER
+        RobotOutputs.shooterLeft.powerLoad = load
+        RobotOutputs.shooterRight.powerLoad = load
+
+        val previousSetpoint = setpoint
+        val step = ShooterConfig.MaxAcceleration * dt
+        setpoint += (target - setpoint).coerceIn(-step, step)
+        val acceleration = if (dt > 0.0) (setpoint - previousSetpoint) / dt else 0.0
+
+        val snapshot = RobotHardware.snapshot
+        val left = snapshot.shooterLeftVelocity
+        val right = snapshot.shooterRightVelocity
+
+        feedforward = ShooterConfig.kS * sign(setpoint) +
+            ShooterConfig.kV * setpoint +
+            ShooterConfig.kA * acceleration
+
+        // Update PID gains from config (allows tuning without restart)
+        pid.setGains(ShooterConfig.kP, ShooterConfig.kI, ShooterConfig.kD)
+        // Don't wind up while PowerArbiter is cutting the power this loop asks for
+        pid.integratorFrozen = PowerArbiter.isThrottled(load)
+        // The motor power is clamped to 0..1 after the feedforward is added, so limit the
+        // feedback to that headroom; the PID then stops integrating while the sum is pinned
+        // (spin-up, shot dips) instead of winding up and overshooting the ready band
+        pid.setOutputRange(-feedforward, 1.0 - feedforward)
+        pid.setpoint = setpoint
+        feedback = pid.calculate((left + right) / 2.0)
 
+        val sync = ShooterConfig.kSync * (left - right)
+        setMotorPower(feedforward + feedback - sync, feedforward + feedback + sync)
 
-        // Control shooter motors based on robot state
-        if (isRobotState(RobotState.SHOOTING)) {
-            currentState= ShooterState.SHOOTING_READY
-            RobotHardware.turretShooterLeftMotor.set(ShooterConfig.ShooterPower)
-            RobotHardware.turretShooterRightMotor.set(ShooterConfig.ShooterPower)
-        } else {
-            currentState=ShooterState.IDLE
-            RobotHardware.turretShooterLeftMotor.set(ShooterConfig.ShooterIdlePower)
-            RobotHardware.turretShooterRightMotor.set(ShooterConfig.ShooterIdlePower)
+        updateReady(shooting, left, right, now)
+        pacer.update(now, (left + right) / 2.0, target, shooting)
+    }
+
+    /**
+     * Ready once the setpoint has reached the target and both wheels have stayed
+     * within the band for the hold time. Leaving the band restarts the hold.
+     */
+    private fun updateReady(shooting: Boolean, left: Double, right: Double, now: Long) {
+        val band = ShooterConfig.ReadyBand
+        val inBand = shooting && setpoint == target &&
+            abs(target - left) <= band && abs(target - right) <= band
+        if (!inBand) {
+            inBandSinceNanos = 0L
+        } else if (inBandSinceNanos == 0L) {
+            inBandSinceNanos = now
+        }
+
+        currentState = when {
+            !shooting -> ShooterState.IDLE
+            inBandSinceNanos != 0L && now - inBandSinceNanos >= ShooterConfig.ReadyHoldMs * 1_000_000L ->
+                ShooterState.SHOOTING_READY
+            else -> ShooterState.SPINNING_UP
         }
     }
-    
+
+    private fun setMotorPower(left: Double, right: Double) {
+        // A flywheel only coasts down; never drive it backwards
+        leftPower = left.coerceIn(0.0, 1.0)
+        rightPower = right.coerceIn(0.0, 1.0)
+        RobotOutputs.shooterLeft.set(leftPower)
+        RobotOutputs.shooterRight.set(rightPower)
+    }
+
+    override fun end() {
+        setpoint = 0.0
+        pid.reset()
+        setMotorPower(0.0, 0.0)
+    }
+
     override fun updateTelemetry() {
-        telemetry.addData("currentState", currentState)
-        telemetry.addData("Left Motor", RobotHardware.turretShooterLeftMotor.get())
-        telemetry.addData("Right Motor", RobotHardware.turretShooterRightMotor.get())
+        val snapshot = RobotHardware.snapshot
+        telemetry.addData(stateChannel, currentState)
+        telemetry.addData(readyChannel, isReady)
+        telemetry.addData(targetChannel, target)
+        telemetry.addData(setpointChannel, setpoint)
+        telemetry.addData(leftVelocityChannel, snapshot.shooterLeftVelocity)
+        telemetry.addData(rightVelocityChannel, snapshot.shooterRightVelocity)
+        telemetry.addData(errorChannel, pid.error)
+        telemetry.addData(feedforwardChannel, feedforward)
+        telemetry.addData(feedbackChannel, feedback)
+        telemetry.addData(leftPowerChannel, leftPower)
+        telemetry.addData(rightPowerChannel, rightPower)
+        telemetry.addData(shotsChannel, pacer.shots.toInt())
+        telemetry.addData(recoveryChannel, pacer.lastRecoveryMs)
+        telemetry.addData(dipChannel, pacer.lastDipVelocity)
+        telemetry.addData(volleyShotsChannel, pacer.volleyShots)
+        telemetry.addData(volleyRateChannel, pacer.volleyBallsPerSecond)
+        telemetry.addData(volleyRecoveriesChannel)
     }
 }
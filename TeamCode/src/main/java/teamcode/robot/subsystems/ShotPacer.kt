@@ -0,0 +1,148 @@
+package teamcode.robot.subsystems
+
+import com.bylazar.configurables.annotations.Configurable
+import kotlin.concurrent.Volatile
+import kotlin.math.abs
+
+@Configurable
+object ShotPacerConfig {
+    /** A drop this far below the target velocity (ticks/s) while at speed is a shot */
+    @JvmField
+    var DipThreshold = 120.0
+    /** Shots further apart than this start a new volley */
+    @JvmField
+    var VolleyGapMs = 1500L
+}
+
+/**
+ * Detects shots from the flywheel velocity and measures how long the wheel takes
+ * to recover, so volleys can be paced by the wheel instead of fixed delays.
+ *
+ * Fed every shooter cycle with the average wheel velocity:
+ * - While at speed, a dip below target - DipThreshold counts as one shot
+ * - Recovery time is from the dip until the velocity is back inside ShooterConfig.ReadyBand
+ * - Shots closer together than VolleyGapMs form a volley, reported as balls per second
+ *
+ * update() is called by the shooter thread only; the results are safe to read from any thread.
+ */
+class ShotPacer {
+
+    /** Shots detected since the OpMode started */
+    @Volatile
+    var shots: Long = 0
+        private set
+
+    /** Whether the wheel is recovering from a shot */
+    @Volatile
+    var recovering: Boolean = false
+        private set
+
+    /** Recovery time of the last completed shot */
+    @Volatile
+    var lastRecoveryMs: Double = 0.0
+        private set
+
+    /** Lowest velocity during the last shot's dip (ticks/s) */
+    @Volatile
+    var lastDipVelocity: Double = 0.0
+        private set
+
+    /** Shots in the current (or last) volley */
+    @Volatile
+    var volleyShots: Int = 0
+        private set
+
+    /** Balls per second of the current (or last) volley, first shot to last shot */
+    @Volatile
+    var volleyBallsPerSecond: Double = 0.0
+        private set
+
+    /** Recovery times of the current (or last) volley, oldest first */
+    private val volleyRecoveries = DoubleArray(MAX_VOLLEY_SHOTS)
+    @Volatile
+    private var volleyRecoveryCount = 0
+
+    /** Armed once the wheel has been at speed since the last shot */
+    private var armed = false
+    private var shotNanos = 0L
+    private var volleyStartNanos = 0L
+    private var dipVelocity = 0.0
+
+    /**
+     * @param velocity Average wheel velocity (ticks/s)
+     * @param target Target velocity (ticks/s)
+     * @param shooting Whether the shooter is spun up for shooting
+     */
+    fun update(now: Long, velocity: Double, target: Double, shooting: Boolean) {
+        if (!shooting) {
+            armed = false
+            recovering = false
+            return
+        }
+
+        val error = target - velocity
+        if (recovering) {
+            if (velocity < dipVelocity) dipVelocity = velocity
+            if (error <= ShooterConfig.ReadyBand) {
+                recovering = false
+                armed = true
+                lastDipVelocity = dipVelocity
+                lastRecoveryMs = (now - shotNanos) / 1e6
+                val count = volleyRecoveryCount
+                if (count < MAX_VOLLEY_SHOTS) {
+                    volleyRecoveries[count] = lastRecoveryMs
+                    volleyRecoveryCount = count + 1
+                }
+            }
+            return
+        }
+
+        if (!armed) {
+            armed = abs(error) <= ShooterConfig.ReadyBand
+            return
+        }
+
+        if (error >= ShotPacerConfig.DipThreshold) {
+            onShot(now, velocity)
+        }
+    }
+
+    private fun onShot(now: Long, velocity: Double) {
+        val newVolley = shots == 0L ||
+            now - shotNanos > ShotPacerConfig.VolleyGapMs * 1_000_000L
+        if (newVolley) {
+            volleyStartNanos = now
+            volleyShots = 0
+            volleyRecoveryCount = 0
+            volleyBallsPerSecond = 0.0
+        }
+        volleyShots++
+        if (volleyShots > 1) {
+            volleyBallsPerSecond = (volleyShots - 1) / ((now - volleyStartNanos) / 1e9)
+        }
+
+        shotNanos = now
+        dipVelocity = velocity
+        armed = false
+        recovering = true
+        shots++
+    }
+
+    /**
+     * Recovery times of the current volley, e.g. "212 198 240". Allocates - for display only.
+     */
+    fun volleyRecoveriesText(): String {
+        val count = volleyRecoveryCount
+        if (count == 0) return "none"
+        val text = StringBuilder()
+        for (i in 0 until count) {
+            if (i > 0) text.append(' ')
+            text.append(volleyRecoveries[i].toLong())
+        }
+        return text.toString()
+    }
+
+    private companion object {
+        const val MAX_VOLLEY_SHOTS = 16
+    }
+}
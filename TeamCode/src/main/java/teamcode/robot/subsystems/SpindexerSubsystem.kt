@@ -3,9 +3,19 @@ package teamcode.robot.subsystems
 import com.bylazar.configurables.annotations.Configurable
 import teamcode.robot.core.ContinuousDirection
 import teamcode.robot.core.PID
+import teamcode.robot.core.PowerArbiter
+import teamcode.robot.core.PowerLoad
 import teamcode.robot.core.RobotHardware
+import teamcode.robot.core.RobotOutputs
+import teamcode.robot.core.TrapezoidProfile
 import teamcode.robot.core.subsystem.Subsystem
 import teamcode.robot.core.utils.degreesToTicks
+import teamcode.telemetry.BoolChannel
+import teamcode.telemetry.DataLogger
+import teamcode.telemetry.DoubleChannel
+import teamcode.telemetry.IntChannel
+import kotlin.math.abs
+import kotlin.math.sign
 
 @Configurable
 object SpindexerConfig {
@@ -29,6 +39,32 @@ object SpindexerConfig {
     var kd: Double = 0.015
     @JvmField
     var pidScale: Double = 0.01
+
+    /** Profiled indexing; false falls back to the plain PID above for comparison */
+    @JvmField
+    var useMotionProfile: Boolean = true
+    /** Profile cruise speed, motor ticks per second */
+    @JvmField
+    var maxVelocity: Double = 2200.0
+    /** Profile acceleration, motor ticks per second squared */
+    @JvmField
+    var maxAcceleration: Double = 12000.0
+
+    // Profile feedforward: power = kS * sign(v) + kV * v + kA * a
+    @JvmField
+    var kS: Double = 0.05
+    @JvmField
+    var kV: Double = 0.00036
+    @JvmField
+    var kA: Double = 0.00002
+
+    // Feedback on the profile position, power per tick
+    @JvmField
+    var profileKp: Double = 0.006
+    @JvmField
+    var profileKi: Double = 0.0
+    @JvmField
+    var profileKd: Double = 0.0001
 }
 
 enum class SpindexerState {
@@ -45,6 +81,41 @@ class SpindexerSubsystem: Subsystem("Spindexer", 20) {
 
     private lateinit var pid: PID
 
+    // Profiled controller, in absolute (unwrapped) motor ticks
+    private lateinit var trackingPid: PID
+    private val profile = TrapezoidProfile()
+    private var profileStartNanos = 0L
+    /** Normalized target the current profile was planned for, NaN to replan */
+    private var plannedTarget = Double.NaN
+    private var feedforward = 0.0
+    /** Whether the profiled controller ran this cycle (false with invalid profile limits) */
+    private var profiled = false
+    private var trackingError = 0.0
+    private var profileAtTarget = false
+
+    // Index timing: from a new target until at target, per controller
+    private var lastTargetTicks = Double.NaN
+    private var indexStartNanos = 0L
+    private var indexMode = false
+    private var lastIndexMs = 0.0
+    private var indexCount = 0
+    private var indexTotalMs = 0.0
+
+    private val profiledChannel = BoolChannel("Motion Profile")
+    private val lastIndexChannel = DoubleChannel("Last Index (ms)", "%.0f")
+    private val averageIndexChannel = DoubleChannel("Average Index (ms)", "%.0f")
+    private val indexCountChannel = IntChannel("Indexes")
+    private val profilePositionChannel = DoubleChannel("Profile Position", "%.0f")
+    private val profileVelocityChannel = DoubleChannel("Profile Velocity", "%.0f")
+    private val feedforwardChannel = DoubleChannel("Feedforward", "%.3f")
+
+    private val indexTimeLog = DataLogger.channel("Spindexer/index ms")
+    private val profiledLog = DataLogger.channel("Spindexer/motion profile")
+
+    /** Last power sent to the motor, so telemetry doesn't need a bus read */
+    @Volatile
+    private var motorPower: Double = 0.0
+
     private var degrees: Double = 0.0
         set(value){
             field=value%360.0
@@ -97,6 +168,7 @@ class SpindexerSubsystem: Subsystem("Spindexer", 20) {
     }
 
     override fun init() {
+        RobotOutputs.compensateVoltage(RobotOutputs.spindexer)
         pid = PID(SpindexerConfig.kp, SpindexerConfig.ki, SpindexerConfig.kd)
         pid.setOutputRange(-SpindexerConfig.maxPower, SpindexerConfig.maxPower)
         pid.setTolerance(SpindexerConfig.acceptedError.toDouble())
@@ -107,7 +179,10 @@ class SpindexerSubsystem: Subsystem("Spindexer", 20) {
         // This ensures the PID automatically chooses the shorter rotation path
         pid.setContinuousInput(0.0, getTicksPerSpindexerRevolution())
         // Restrict to positive direction only (increase only, no backward movement)
-        pid.setContinuousDirection(ContinuousDirection.POSITIVE_ONLY,300.0)
+        pid.setContinuousDirection(ContinuousDirection.POSITIVE_ONLY, REVERSE_THRESHOLD)
+
+        trackingPid = PID(SpindexerConfig.profileKp, SpindexerConfig.profileKi, SpindexerConfig.profileKd)
+        trackingPid.setOutputRange(-SpindexerConfig.maxPower, SpindexerConfig.maxPower)
     }
 
     /**
@@ -147,12 +222,118 @@ class SpindexerSubsystem: Subsystem("Spindexer", 20) {
     override fun periodic() {
          if (!isEnabled || current<KickerSubsystem>().currentState !== KickerState.IDLE){
              currentState = SpindexerState.IDLE
-             RobotHardware.spindexterMotor.set(0.0)
+             setMotorPower(0.0)
+             // Start a fresh profile from wherever the spindexer is when it resumes
+             plannedTarget = Double.NaN
              return
          }
-        
+
+        val now = System.nanoTime()
+        val targetTicks = normalizeTicks(degreesToMotorTicks(degrees))
+        if (targetTicks != lastTargetTicks) {
+            // The starting target isn't an index
+            if (!lastTargetTicks.isNaN()) indexStartNanos = now
+            lastTargetTicks = targetTicks
+        }
+
+        // Don't wind up while PowerArbiter is cutting the power this loop asks for
+        val throttled = PowerArbiter.isThrottled(PowerLoad.SPINDEXER)
+        pid.integratorFrozen = throttled
+        trackingPid.integratorFrozen = throttled
+
+        // Limits of 0 while tuning would make the profile impossible; use the plain PID until fixed
+        profiled = SpindexerConfig.useMotionProfile &&
+            SpindexerConfig.maxVelocity > 0.0 && SpindexerConfig.maxAcceleration > 0.0
+        if (profiled) {
+            periodicProfiled(now, targetTicks)
+        } else {
+            plannedTarget = Double.NaN
+            periodicLegacy()
+        }
+
+        if (currentState === SpindexerState.IDLE && indexStartNanos != 0L) {
+            recordIndex(now)
+        }
+    }
+
+    /**
+     * Track a trapezoidal profile for each move with feedforward plus PID.
+     * At target only once the profile has finished and the error is within acceptedError,
+     * so the state can't report IDLE while the profile is still moving past the goal.
+     */
+    private fun periodicProfiled(now: Long, targetTicks: Double) {
+        val position = RobotHardware.snapshot.spindexerPosition.toDouble()
+
+        if (targetTicks != plannedTarget) {
+            planMove(now, position, targetTicks)
+        }
+
+        val t = (now - profileStartNanos) / 1e9
+        profile.sample(t)
+
+        feedforward = SpindexerConfig.kS * sign(profile.velocity) +
+            SpindexerConfig.kV * profile.velocity +
+            SpindexerConfig.kA * profile.acceleration
+
+        trackingPid.setGains(SpindexerConfig.profileKp, SpindexerConfig.profileKi, SpindexerConfig.profileKd)
+        trackingPid.setpoint = profile.position
+        val feedback = trackingPid.calculate(position)
+
+        trackingError = profile.goal - position
+        profileAtTarget = profile.isFinished(t) && abs(trackingError) <= SpindexerConfig.acceptedError
+        if (profileAtTarget) {
+            currentState = SpindexerState.IDLE
+            setMotorPower(0.0)
+        } else {
+            currentState = SpindexerState.SPINNING
+            val maxPower = SpindexerConfig.maxPower
+            setMotorPower((feedforward + feedback).coerceIn(-maxPower, maxPower))
+        }
+    }
+
+    /**
+     * Plan a move from [position] to the next absolute tick count that normalizes to
+     * [targetTicks]. Forward only, like the legacy controller, unless the target is
+     * less than REVERSE_THRESHOLD ticks behind. A move replanned mid-way keeps its velocity.
+     */
+    private fun planMove(now: Long, position: Double, targetTicks: Double) {
+        val range = getTicksPerSpindexerRevolution()
+        var distance = (targetTicks - normalizeTicks(position)) % range
+        if (distance < 0.0) distance += range
+        if (distance > range - REVERSE_THRESHOLD) distance -= range
+
+        val moving = !plannedTarget.isNaN() && !profile.isFinished((now - profileStartNanos) / 1e9)
+        profile.plan(
+            position, position + distance,
+            if (moving) profile.velocity else 0.0,
+            SpindexerConfig.maxVelocity, SpindexerConfig.maxAcceleration
+        )
+        profileStartNanos = now
+        plannedTarget = targetTicks
+        trackingPid.reset()
+    }
+
+    private fun recordIndex(now: Long) {
+        // Keep the averages separate for each controller
+        if (indexMode != profiled) {
+            indexMode = profiled
+            indexCount = 0
+            indexTotalMs = 0.0
+        }
+        lastIndexMs = (now - indexStartNanos) / 1e6
+        indexStartNanos = 0L
+        indexCount++
+        indexTotalMs += lastIndexMs
+        DataLogger.log(indexTimeLog, lastIndexMs)
+        DataLogger.log(profiledLog, indexMode)
+    }
+
+    /**
+     * Original controller: PID straight at the target.
+     */
+    private fun periodicLegacy() {
        // Get current motor position and normalize
-       val currentTicks = RobotHardware.spindexterMotor.currentPosition.toDouble()
+       val currentTicks = RobotHardware.snapshot.spindexerPosition.toDouble()
        val normalizedCurrentTicks = normalizeTicks(currentTicks)
 
        // Convert target degrees to motor ticks and normalize
@@ -172,20 +353,25 @@ class SpindexerSubsystem: Subsystem("Spindexer", 20) {
        // Update state based on whether we're at target
        if (pid.isAtPosition()) {
            currentState = SpindexerState.IDLE
-           RobotHardware.spindexterMotor.set(0.0)
+           setMotorPower(0.0)
        }else{
            currentState = SpindexerState.SPINNING
-           RobotHardware.spindexterMotor.set(output)
+           setMotorPower(output)
        }
     }
 
+    private fun setMotorPower(power: Double) {
+        motorPower = power
+        RobotOutputs.spindexer.set(power)
+    }
+
     override fun end() {
         currentState = SpindexerState.IDLE
-        RobotHardware.spindexterMotor.set(0.0)
+        setMotorPower(0.0)
     }
 
     override fun updateTelemetry() {
-        val currentTicks = RobotHardware.spindexterMotor.currentPosition.toDouble()
+        val currentTicks = RobotHardware.snapshot.spindexerPosition.toDouble()
         val normalizedCurrentTicks = normalizeTicks(currentTicks)
         val targetTicks = degreesToMotorTicks(degrees)
         val normalizedTargetTicks = normalizeTicks(targetTicks)
@@ -195,8 +381,20 @@ class SpindexerSubsystem: Subsystem("Spindexer", 20) {
         telemetry.addData("Current Ticks", normalizedCurrentTicks)
         telemetry.addData("Absolute Ticks", currentTicks)
         telemetry.addData("Target Ticks", normalizedTargetTicks)
-        telemetry.addData("Error", pid.error)
-        telemetry.addData("At Position", pid.isAtPosition())
-        telemetry.addData("Motor Power", RobotHardware.spindexterMotor.get())
+        telemetry.addData("Error", if (profiled) trackingError else pid.error)
+        telemetry.addData("At Position", if (profiled) profileAtTarget else pid.isAtPosition())
+        telemetry.addData("Motor Power", motorPower)
+        telemetry.addData(profiledChannel, profiled)
+        telemetry.addData(profilePositionChannel, profile.position)
+        telemetry.addData(profileVelocityChannel, profile.velocity)
+        telemetry.addData(feedforwardChannel, feedforward)
+        telemetry.addData(lastIndexChannel, lastIndexMs)
+        telemetry.addData(averageIndexChannel, if (indexCount > 0) indexTotalMs / indexCount else 0.0)
+        telemetry.addData(indexCountChannel, indexCount)
+    }
+
+    private companion object {
+        /** A target less than this many ticks behind is reached backwards instead of going round */
+        const val REVERSE_THRESHOLD = 300.0
     }
 }
\ No newline at end of file
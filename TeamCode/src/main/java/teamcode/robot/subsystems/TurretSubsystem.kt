@@ -2,8 +2,11 @@ package teamcode.robot.subsystems
 
 import com.bylazar.configurables.annotations.Configurable
 import teamcode.robot.core.PID
-import teamcode.robot.core.RobotHardware
+import teamcode.robot.core.RobotOutputs
 import teamcode.robot.core.subsystem.Subsystem
+import teamcode.telemetry.DataLogger
+import teamcode.telemetry.DoubleChannel
+import teamcode.telemetry.EnumChannel
 import teamcode.threading.RobotThread
 import kotlin.concurrent.Volatile
 import kotlin.math.abs
@@ -66,10 +69,32 @@ class TurretSubsystem : Subsystem("Turret", 10) {
 
     final var targetAngle: Double = 0.0
         private set
+
+    /** Latest Vision frame, read in place every cycle */
+    private val visionState = VisionState()
+
+    /** Vision frame version the PID last ran on */
+    private var lastVisionFrame: Long = -1
+
+    private val errorChannel = DataLogger.channel("Turret/PID Error")
+    private val pChannel = DataLogger.channel("Turret/PID P")
+    private val iChannel = DataLogger.channel("Turret/PID I")
+    private val dChannel = DataLogger.channel("Turret/PID D")
+    private val targetChannel = DataLogger.channel("Turret/Target Angle")
+
+    private val stateChannel = EnumChannel<TurretState>("Turret State")
+    private val targetAngleChannel = DoubleChannel("Target Angle", "%.2f°")
+    private val servoPosChannel = DoubleChannel("Servo Pos", "%.3f")
+    private val visionErrorChannel = DoubleChannel("Vision Error", "%.2f°")
+    private val pidErrorChannel = DoubleChannel("PID Error", "%.3f")
+    private val pidPChannel = DoubleChannel("PID P", "%.3f")
+    private val pidIChannel = DoubleChannel("PID I", "%.3f")
+    private val pidDChannel = DoubleChannel("PID D", "%.3f")
     
     override fun init() {
         // Wait for VisionSubsystem to be available (threads start concurrently)
-        vision = current<VisionSubsystem>(10)
+        // and run whenever it publishes a new frame
+        vision = dependsOn<VisionSubsystem>()
         
         // Configure PID
         pid.setpoint = 0.0  // Target is centered (0 degrees error)
@@ -98,17 +123,17 @@ class TurretSubsystem : Subsystem("Turret", 10) {
         if (!isEnabled) return
 
         if (currentState == TurretState.AUTO) {
-            if (!vision.hasTargets()){
+            // Only run PID on a new Vision frame - Vision wakes this thread as soon as one
+            // arrives, and re-running PID on the same measurement just adds stale error.
+            val frame = vision.readState(visionState)
+            if (frame == lastVisionFrame) return
+            lastVisionFrame = frame
+
+            if (!visionState.hasTargets){
                 return
             }
 
-            var result = vision.targetX
-        
-        
-        if (!vision.hasTargets()) {
-            RobotHardware.turretTurnMotor.set(0.0)
-            return
-        }
+            var result = visionState.targetX
 
         
         // Update PID gains from config (allows tuning without restart)
@@ -116,16 +141,21 @@ class TurretSubsystem : Subsystem("Turret", 10) {
         
         // PID controller: measurement is vision error, setpoint is 0 (centered)
         val correction = pid.calculate(result)
+        DataLogger.log(errorChannel, pid.error)
+        DataLogger.log(pChannel, pid.pTerm)
+        DataLogger.log(iChannel, pid.iTerm)
+        DataLogger.log(dChannel, pid.dTerm)
 
         
         // Apply correction to target angle
         targetAngle -= correction
         targetAngle = targetAngle.coerceIn(-TurretConfig.maxMove/2, TurretConfig.maxMove/2)
+        DataLogger.log(targetChannel, targetAngle)
         }
 
 
         val servoPos = convertDegreesToPos(targetAngle)
-        RobotHardware.turretTurnServo.set(servoPos)
+        RobotOutputs.turretTurnServo.set(servoPos)
     }
     
     fun enable() {
@@ -135,7 +165,7 @@ class TurretSubsystem : Subsystem("Turret", 10) {
     
     fun disable() {
         isEnabled = false
-        RobotHardware.turretTurnMotor.set(0.0)
+        RobotOutputs.turretTurnMotor.set(0.0)
         pid.reset()  // Reset PID state to prevent integral windup
     }
 
@@ -165,20 +195,21 @@ class TurretSubsystem : Subsystem("Turret", 10) {
     override fun updateTelemetry() {
         super.updateTelemetry()
         telemetry.addData("Enabled", isEnabled)
-        telemetry.addData("State", currentState)
-        telemetry.addData("Target Angle", "%.2f°".format(targetAngle))
-        telemetry.addData("Servo Pos", "%.3f".format(RobotHardware.turretTurnServo.get()))
+        telemetry.addData(stateChannel, currentState)
+        telemetry.addData(targetAngleChannel, targetAngle)
+        telemetry.addData(servoPosChannel, RobotOutputs.turretTurnServo.get())
         
-        if (isEnabled && vision.hasTargets()) {
-            val tag = vision.getAprilTag(24)
-            if (tag != null) {
+        vision.readState(visionState)
+        if (isEnabled && visionState.hasTargets) {
+            val tag = visionState.indexOfTag(24)
+            if (tag >= 0) {
                 telemetry.addData("Status", "Tracking")
-                telemetry.addData("Target ID", tag.id)
-                telemetry.addData("Vision Error", "%.2f°".format(tag.xDegrees))
-                telemetry.addData("PID Error", "%.3f".format(pid.error))
-                telemetry.addData("PID P", "%.3f".format(pid.pTerm))
-                telemetry.addData("PID I", "%.3f".format(pid.iTerm))
-                telemetry.addData("PID D", "%.3f".format(pid.dTerm))
+                telemetry.addData("Target ID", visionState.tagIds[tag])
+                telemetry.addData(visionErrorChannel, visionState.tagXDegrees[tag])
+                telemetry.addData(pidErrorChannel, pid.error)
+                telemetry.addData(pidPChannel, pid.pTerm)
+                telemetry.addData(pidIChannel, pid.iTerm)
+                telemetry.addData(pidDChannel, pid.dTerm)
 
             } else {
                 telemetry.addData("Status", "No Tag")
@@ -1,12 +1,11 @@
 package teamcode.robot.subsystems
 
 import com.qualcomm.hardware.limelightvision.LLResult
-import com.qualcomm.hardware.limelightvision.LLResultTypes.FiducialResult
-import com.qualcomm.hardware.limelightvision.Limelight3A
 import teamcode.robot.core.RobotHardware
+import teamcode.robot.core.subsystem.PublishedState
+import teamcode.robot.core.subsystem.StateRecord
+import teamcode.robot.core.subsystem.StateSlots
 import teamcode.robot.core.subsystem.Subsystem
-import java.util.function.Consumer
-import kotlin.concurrent.Volatile
 
 enum class VisionPipeline(val id: Int) {
     OBELISK(0),
@@ -14,87 +13,156 @@ enum class VisionPipeline(val id: Int) {
     BLUE(2),
 }
 
+/**
+ * One Limelight frame: the primary target and up to MAX_TAGS AprilTags.
+ * Preallocated - fill in place, publish or read into an existing instance.
+ */
+class VisionState : StateRecord() {
+    var hasTargets: Boolean = false
+    var targetX: Double = 0.0
+    var targetY: Double = 0.0
+    var targetArea: Double = 0.0
+    /** Control Hub timestamp of the Limelight result (ms) */
+    var timestampMs: Long = 0L
+
+    var tagCount: Int = 0
+    val tagIds = IntArray(MAX_TAGS)
+    val tagXDegrees = DoubleArray(MAX_TAGS)
+    val tagYDegrees = DoubleArray(MAX_TAGS)
+
+    /**
+     * Index of the tag with [id] in the tag arrays, or -1 if it wasn't seen.
+     */
+    fun indexOfTag(id: Int): Int {
+        for (i in 0 until tagCount) {
+            if (tagIds[i] == id) return i
+        }
+        return -1
+    }
+
+    fun clear() {
+        hasTargets = false
+        targetX = 0.0
+        targetY = 0.0
+        targetArea = 0.0
+        tagCount = 0
+    }
+
+    override val slotCount: Int
+        get() = TAGS_START + MAX_TAGS * 3
+
+    override fun writeTo(slots: StateSlots) {
+        slots.putBoolean(0, hasTargets)
+        slots.putDouble(1, targetX)
+        slots.putDouble(2, targetY)
+        slots.putDouble(3, targetArea)
+        slots.putLong(4, timestampMs)
+        slots.putInt(5, tagCount)
+        for (i in 0 until tagCount) {
+            val base = TAGS_START + i * 3
+            slots.putInt(base, tagIds[i])
+            slots.putDouble(base + 1, tagXDegrees[i])
+            slots.putDouble(base + 2, tagYDegrees[i])
+        }
+    }
+
+    override fun readFrom(slots: StateSlots) {
+        hasTargets = slots.getBoolean(0)
+        targetX = slots.getDouble(1)
+        targetY = slots.getDouble(2)
+        targetArea = slots.getDouble(3)
+        timestampMs = slots.getLong(4)
+        // Clamp in case a torn count is read; the seqlock retries that read anyway
+        tagCount = slots.getInt(5).coerceIn(0, MAX_TAGS)
+        for (i in 0 until tagCount) {
+            val base = TAGS_START + i * 3
+            tagIds[i] = slots.getInt(base)
+            tagXDegrees[i] = slots.getDouble(base + 1)
+            tagYDegrees[i] = slots.getDouble(base + 2)
+        }
+    }
+
+    companion object {
+        /** More tags than this in one frame are dropped */
+        const val MAX_TAGS = 8
+        private const val TAGS_START = 6
+    }
+}
+
 /**
  * Vision subsystem for processing Limelight data.
  * Runs continuously on its own thread.
+ *
+ * Checks for a new Limelight result every 10 ms (getLatestResult() only returns the
+ * driver's cached result, so this is cheap) and publishes one VisionState per new
+ * frame, which wakes dependent subsystems such as the turret right away.
+ *
+ * Readers that run every cycle should keep their own VisionState and call readState();
+ * the convenience getters below read a consistent frame too, but one per call.
  */
-class VisionSubsystem : Subsystem("Vision", 100) {
-    
-    @Volatile
-    private var targetsDetected = false
-    
-    @Volatile
-    final var targetX: Double = 0.0
-        private set
-    
-    @Volatile
-    final var targetY: Double = 0.0
-        private set
-    
-    @Volatile
-    final var targetArea: Double = 0.0
-        private set
-    
-    private val aprilTagsLock = Any()
-    private var aprilTags: MutableMap<Int?, AprilTag?> = HashMap()
+class VisionSubsystem : Subsystem("Vision", 10) {
+
+    /** Latest frame, readable from any thread without locks */
+    val state = PublishedState(VisionState())
+
+    /** Filled in place each frame by this thread only */
+    private val writeState = VisionState()
+
+    /** Per-thread record for the convenience getters */
+    private val readerState = object : ThreadLocal<VisionState>() {
+        override fun initialValue() = VisionState()
+    }
 
     private var currentPipeline = VisionPipeline.OBELISK
-    
+
+    /** Control Hub timestamp of the last processed result */
+    private var lastResultTimestamp: Long = -1
+
     class AprilTag(val id: Int, val yDegrees: Double, val xDegrees: Double)
-    
+
     override fun init() {
         RobotHardware.limelight.start()
     }
-    
+
     override fun periodic() {
-        
+
         try {
-            val result = RobotHardware.limelight.getLatestResult()
-            targetsDetected = result.isValid()
-            
-            if (targetsDetected) {
-                targetX = result.getTx()
-                targetY = result.getTy()
-                targetArea = result.getTa()
-            } else {
-                targetX = 0.0
-                targetY = 0.0
-                targetArea = 0.0
+            val result = RobotHardware.limelight.getLatestResult() ?: return
+
+            // Same frame as last time - nothing new to publish
+            val timestamp = result.getControlHubTimeStamp()
+            if (timestamp == lastResultTimestamp) return
+            lastResultTimestamp = timestamp
+
+            writeState.clear()
+            writeState.timestampMs = timestamp
+            writeState.hasTargets = result.isValid()
+
+            if (writeState.hasTargets) {
+                writeState.targetX = result.getTx()
+                writeState.targetY = result.getTy()
+                writeState.targetArea = result.getTa()
+                updateAprilTags(result)
             }
-            
-            updateAprilTags(result)
+
+            publishState(state, writeState)
         } catch (e: Exception) {
             handleException(e)
-            targetsDetected = false
-            synchronized(aprilTagsLock) {
-                aprilTags = HashMap()
-            }
+            writeState.clear()
+            publishState(state, writeState)
         }
     }
-    
-    private fun updateAprilTags(result: LLResult?) {
-        try {
-            val detectedTags: MutableMap<Int?, AprilTag?> = HashMap()
-            
-            if (result != null && result.isValid()) {
-                result.getFiducialResults().forEach(Consumer { fiducialResult: FiducialResult? ->
-                    val tag = AprilTag(
-                        fiducialResult!!.getFiducialId(),
-                        fiducialResult.getTargetYDegrees(),
-                        fiducialResult.getTargetXDegrees()
-                    )
-                    detectedTags[tag.id] = tag
-                })
-            }
-            
-            synchronized(aprilTagsLock) {
-                aprilTags = detectedTags
-            }
-        } catch (e: Exception) {
-            synchronized(aprilTagsLock) {
-                aprilTags = HashMap()
-            }
+
+    private fun updateAprilTags(result: LLResult) {
+        val fiducials = result.getFiducialResults()
+        val count = minOf(fiducials.size, VisionState.MAX_TAGS)
+        for (i in 0 until count) {
+            val fiducial = fiducials[i]
+            writeState.tagIds[i] = fiducial.getFiducialId()
+            writeState.tagXDegrees[i] = fiducial.getTargetXDegrees()
+            writeState.tagYDegrees[i] = fiducial.getTargetYDegrees()
         }
+        writeState.tagCount = count
     }
 
     fun setPipeline(pipeline: VisionPipeline) {
@@ -102,46 +170,64 @@ class VisionSubsystem : Subsystem("Vision", 100) {
         currentPipeline = pipeline
         RobotHardware.limelight.pipelineSwitch(pipeline.id)
     }
-    
-    fun hasTargets(): Boolean = targetsDetected
-    
+
+    /**
+     * Copy the latest frame into [into] without locking or allocating.
+     * @return Frame version, changes with every new frame
+     */
+    fun readState(into: VisionState): Long = state.read(into)
+
+    private fun latest(): VisionState {
+        val record = readerState.get()!!
+        state.read(record)
+        return record
+    }
+
+    val targetX: Double
+        get() = latest().targetX
+
+    val targetY: Double
+        get() = latest().targetY
+
+    val targetArea: Double
+        get() = latest().targetArea
+
+    fun hasTargets(): Boolean = latest().hasTargets
+
     fun getAprilTags(): Array<AprilTag?> {
-        synchronized(aprilTagsLock) {
-            return aprilTags.values.toTypedArray()
+        val frame = latest()
+        return Array(frame.tagCount) { i ->
+            AprilTag(frame.tagIds[i], frame.tagYDegrees[i], frame.tagXDegrees[i])
         }
     }
-    
+
     fun getAprilTag(id: Int): AprilTag? {
-        synchronized(aprilTagsLock) {
-            return aprilTags[id]
-        }
+        val frame = latest()
+        val i = frame.indexOfTag(id)
+        if (i < 0) return null
+        return AprilTag(id, frame.tagYDegrees[i], frame.tagXDegrees[i])
     }
-    
+
     fun getAprilTag(ids: IntArray): AprilTag? {
-        synchronized(aprilTagsLock) {
-            for (id in ids) {
-                aprilTags[id]?.let { return it }
-            }
+        val frame = latest()
+        for (id in ids) {
+            val i = frame.indexOfTag(id)
+            if (i >= 0) return AprilTag(id, frame.tagYDegrees[i], frame.tagXDegrees[i])
         }
         return null
     }
-    
-    fun hasAprilTags(): Boolean {
-        synchronized(aprilTagsLock) {
-            return aprilTags.isNotEmpty()
-        }
-    }
-    
+
+    fun hasAprilTags(): Boolean = latest().tagCount > 0
+
     override fun updateTelemetry() {
         super.updateTelemetry()
+        val frame = latest()
         telemetry.addData("Status", "Running")
-        telemetry.addData("Targets", targetsDetected)
-        telemetry.addData("X", targetX)
-        telemetry.addData("Y", targetY)
-        telemetry.addData("Area", targetArea)
-        
-        synchronized(aprilTagsLock) {
-            telemetry.addData("AprilTags", aprilTags.size)
-        }
+        telemetry.addData("Targets", frame.hasTargets)
+        telemetry.addData("X", frame.targetX)
+        telemetry.addData("Y", frame.targetY)
+        telemetry.addData("Area", frame.targetArea)
+        telemetry.addData("AprilTags", frame.tagCount)
+        telemetry.addData("Frames", state.version)
     }
 }
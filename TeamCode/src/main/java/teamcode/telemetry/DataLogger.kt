@@ -0,0 +1,342 @@
+package teamcode.telemetry
+
+import com.bylazar.configurables.annotations.Configurable
+import com.qualcomm.robotcore.util.RobotLog
+import org.firstinspires.ftc.robotcore.internal.system.AppUtil
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteOrder
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.concurrent.Volatile
+
+@Configurable
+object LogConfig {
+    /** Whether ThreadedOpMode records a log file */
+    @JvmField
+    var enabled: Boolean = true
+    /**
+     * Records kept in the ring file (32 bytes each, so 128 MB by default); older records
+     * are overwritten. Power of two.
+     *
+     * The robot logs about 12k records/s (HardwareCycle ~4k at 200 Hz, the 100 Hz
+     * subsystems ~1-2k each), so the default holds about 6 minutes: a whole match
+     * with init and margin for more channels.
+     */
+    @JvmField
+    var capacityRecords: Int = 1 shl 22
+    /** How often the file is synced to storage */
+    @JvmField
+    var flushIntervalMs: Long = 500
+    /** Older log files beyond this many are deleted when a new log starts */
+    @JvmField
+    var keepFiles: Int = 3
+}
+
+/**
+ * Full-rate binary log of telemetry values, encoder readings, PID terms,
+ * command events and state transitions, for analysis after a match.
+ *
+ * Every value is one fixed-size, timestamped record written straight into a
+ * memory-mapped ring file. A write reserves a slot with one atomic increment and
+ * fills it with absolute puts - no locks, no allocation, no system calls - so
+ * logging from a control loop costs about as much as a few array stores. A
+ * background thread syncs the file to storage and writes the channel name table.
+ *
+ * Values are logged to channels registered once by name:
+ * ```
+ * private val errorChannel = DataLogger.channel("Turret/PID Error")
+ * ...
+ * DataLogger.log(errorChannel, pid.error)
+ * ```
+ *
+ * TelemetryWriter logs every primitive and enum value it is given, so anything
+ * shown on telemetry is logged at the rate it is written, not the rate it is displayed.
+ * Quiet channels (per-iteration counters and loop timing) are the exception.
+ *
+ * Files are written to the robot's storage as log-<ms>.bin. Read them on a
+ * computer with LogReader.
+ *
+ * When no log is open each log call costs one branch on [enabled].
+ */
+object DataLogger {
+
+    /** Record value types */
+    const val DOUBLE = 0
+    const val LONG = 1
+    const val BOOLEAN = 2
+    const val ENUM = 3
+
+    /** File layout, shared with LogReader */
+    internal const val MAGIC = 0x3130474F_4C435446L // "FTCLOG01" as little-endian bytes
+    internal const val VERSION = 1
+    internal const val HEADER_BYTES = 64
+    internal const val NAMES_BYTES = 256 * 1024
+    internal const val RECORD_BYTES = 32
+    internal const val RECORDS_OFFSET = HEADER_BYTES + NAMES_BYTES
+
+    /** Header field offsets */
+    internal const val HEADER_VERSION = 8
+    internal const val HEADER_RECORD_BYTES = 12
+    internal const val HEADER_CAPACITY = 16
+    internal const val HEADER_START_MILLIS = 24
+    internal const val HEADER_START_NANOS = 32
+    internal const val HEADER_WRITTEN = 40
+    internal const val HEADER_NAMES_BYTES = 48
+
+    /** Record field offsets; SEQUENCE is written last and marks the record complete */
+    internal const val RECORD_SEQUENCE = 0
+    internal const val RECORD_TIME = 8
+    internal const val RECORD_CHANNEL = 16
+    internal const val RECORD_TYPE = 20
+    internal const val RECORD_VALUE = 24
+
+    private const val MAX_CHANNELS = 4096
+    private const val TAG = "DataLogger"
+
+    /**
+     * Whether a log file is open. Set by start()/stop().
+     */
+    @Volatile
+    @JvmField
+    var enabled: Boolean = false
+
+    // Channel registry; arrays are written under the lock and only grow
+    private val channelIds = HashMap<String, Int>()
+    private val channelNames = arrayOfNulls<String>(MAX_CHANNELS)
+    private val enumTypes = arrayOfNulls<Class<*>>(MAX_CHANNELS)
+    @Volatile
+    private var channelCount = 0
+    @Volatile
+    private var namesDirty = true
+
+    // Open log, null when stopped
+    @Volatile
+    private var records: MappedByteBuffer? = null
+    private var file: RandomAccessFile? = null
+    private var mask = 0L
+    private var startNanos = 0L
+    private val nextSequence = AtomicLong()
+
+    private var flusher: Thread? = null
+    @Volatile
+    private var running = false
+
+    /**
+     * Register [name] and return its channel. Registering the same name again
+     * returns the same channel. Call once and keep the ID - this locks and may allocate.
+     * @return The channel, or -1 if the channel table is full (logging to it is ignored)
+     */
+    fun channel(name: String): Int {
+        synchronized(channelIds) {
+            channelIds[name]?.let { return it }
+            val id = channelCount
+            if (id == MAX_CHANNELS) return -1
+            channelNames[id] = name
+            channelIds[name] = id
+            channelCount = id + 1
+            namesDirty = true
+            return id
+        }
+    }
+
+    fun log(channel: Int, value: Double) {
+        if (!enabled) return
+        write(channel, DOUBLE, java.lang.Double.doubleToRawLongBits(value))
+    }
+
+    fun log(channel: Int, value: Long) {
+        if (!enabled) return
+        write(channel, LONG, value)
+    }
+
+    fun log(channel: Int, value: Int) {
+        if (!enabled) return
+        write(channel, LONG, value.toLong())
+    }
+
+    fun log(channel: Int, value: Boolean) {
+        if (!enabled) return
+        write(channel, BOOLEAN, if (value) 1L else 0L)
+    }
+
+    /**
+     * Log an enum constant by ordinal. The constant names of its class are written
+     * to the file once, so LogReader shows names.
+     */
+    fun log(channel: Int, value: Enum<*>) {
+        if (!enabled || channel < 0) return
+        if (enumTypes[channel] !== value.declaringClass) {
+            enumTypes[channel] = value.declaringClass
+            namesDirty = true
+        }
+        write(channel, ENUM, value.ordinal.toLong())
+    }
+
+    private fun write(channel: Int, type: Int, value: Long) {
+        val buffer = records ?: return
+        if (channel < 0) return
+        val sequence = nextSequence.getAndIncrement()
+        val offset = RECORDS_OFFSET + ((sequence and mask) * RECORD_BYTES).toInt()
+        buffer.putLong(offset + RECORD_TIME, System.nanoTime() - startNanos)
+        buffer.putInt(offset + RECORD_CHANNEL, channel)
+        buffer.putInt(offset + RECORD_TYPE, type)
+        buffer.putLong(offset + RECORD_VALUE, value)
+        buffer.putLong(offset + RECORD_SEQUENCE, sequence + 1)
+    }
+
+    /**
+     * Open a new log file and start recording. Allocates and does file I/O -
+     * call during init, not from a control loop.
+     * @return The file being written, or null if it couldn't be opened
+     */
+    fun start(): File? {
+        stop()
+        try {
+            deleteOldLogs()
+            val capacity = Integer.highestOneBit(LogConfig.capacityRecords.coerceAtLeast(1024)).toLong()
+            val size = RECORDS_OFFSET + capacity * RECORD_BYTES
+            val logFile = File(AppUtil.ROBOT_DATA_DIR, "log-${System.currentTimeMillis()}.bin")
+            val raf = RandomAccessFile(logFile, "rw")
+            raf.setLength(size)
+            val buffer = raf.channel.map(FileChannel.MapMode.READ_WRITE, 0, size)
+            buffer.order(ByteOrder.LITTLE_ENDIAN)
+
+            // Fault every page in now so control loops don't wait on storage reads.
+            // Read-only, so the whole file isn't dirtied and written back at every start.
+            buffer.load()
+
+            startNanos = System.nanoTime()
+            buffer.putLong(0, MAGIC)
+            buffer.putInt(HEADER_VERSION, VERSION)
+            buffer.putInt(HEADER_RECORD_BYTES, RECORD_BYTES)
+            buffer.putLong(HEADER_CAPACITY, capacity)
+            buffer.putLong(HEADER_START_MILLIS, System.currentTimeMillis())
+            buffer.putLong(HEADER_START_NANOS, startNanos)
+            buffer.putLong(HEADER_WRITTEN, 0L)
+            buffer.putInt(HEADER_NAMES_BYTES, NAMES_BYTES)
+
+            file = raf
+            mask = capacity - 1
+            nextSequence.set(0L)
+            namesDirty = true
+            records = buffer
+            enabled = true
+
+            running = true
+            flusher = Thread({ flushLoop(buffer) }, "DataLogger").apply {
+                isDaemon = true
+                start()
+            }
+            RobotLog.ii(TAG, "Data log: %s", logFile.absolutePath)
+            return logFile
+        } catch (e: Exception) {
+            System.err.println("Error starting data log: ${e.message}")
+            e.printStackTrace()
+            stop()
+            return null
+        }
+    }
+
+    /**
+     * Stop recording, sync the file and close it.
+     */
+    fun stop() {
+        enabled = false
+        val buffer = records
+        records = null
+        running = false
+        flusher?.let {
+            it.interrupt()
+            try {
+                it.join(1000)
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+            }
+        }
+        flusher = null
+        if (buffer != null) {
+            try {
+                flush(buffer)
+            } catch (e: Exception) {
+                System.err.println("Error flushing data log: ${e.message}")
+                e.printStackTrace()
+            }
+        }
+        try {
+            file?.close()
+        } catch (e: Exception) {
+            System.err.println("Error closing data log: ${e.message}")
+        }
+        file = null
+    }
+
+    private fun flushLoop(buffer: MappedByteBuffer) {
+        while (running) {
+            try {
+                Thread.sleep(LogConfig.flushIntervalMs)
+            } catch (e: InterruptedException) {
+                return
+            }
+            try {
+                flush(buffer)
+            } catch (e: Exception) {
+                System.err.println("Error flushing data log: ${e.message}")
+                e.printStackTrace()
+            }
+        }
+    }
+
+    private fun flush(buffer: MappedByteBuffer) {
+        if (namesDirty) {
+            namesDirty = false
+            writeNames(buffer)
+        }
+        buffer.putLong(HEADER_WRITTEN, nextSequence.get())
+        buffer.force()
+    }
+
+    /**
+     * Write the channel table: count, then per channel its name and enum constant names.
+     * A table that doesn't fit is cut off at the last whole channel.
+     */
+    private fun writeNames(buffer: MappedByteBuffer) {
+        val count = channelCount
+        var position = HEADER_BYTES + 4
+        var written = 0
+        for (id in 0 until count) {
+            val name = channelNames[id] ?: break
+            val constants = enumTypes[id]?.enumConstants
+            var bytes = 2 + utf8Length(name) + 2
+            constants?.forEach { bytes += 2 + utf8Length(it.toString()) }
+            if (position + bytes > HEADER_BYTES + NAMES_BYTES) break
+
+            position = putString(buffer, position, name)
+            buffer.putShort(position, (constants?.size ?: 0).toShort())
+            position += 2
+            constants?.forEach { position = putString(buffer, position, it.toString()) }
+            written++
+        }
+        buffer.putInt(HEADER_BYTES, written)
+    }
+
+    private fun utf8Length(value: String) = value.toByteArray(Charsets.UTF_8).size
+
+    private fun putString(buffer: MappedByteBuffer, position: Int, value: String): Int {
+        val bytes = value.toByteArray(Charsets.UTF_8)
+        buffer.putShort(position, bytes.size.toShort())
+        for (i in bytes.indices) buffer.put(position + 2 + i, bytes[i])
+        return position + 2 + bytes.size
+    }
+
+    private fun deleteOldLogs() {
+        val logs = AppUtil.ROBOT_DATA_DIR.listFiles { f -> f.name.startsWith("log-") && f.name.endsWith(".bin") }
+            ?: return
+        logs.sortByDescending { it.lastModified() }
+        // Keep room for the one about to be created
+        for (i in (LogConfig.keepFiles - 1).coerceAtLeast(0) until logs.size) {
+            logs[i].delete()
+        }
+    }
+}
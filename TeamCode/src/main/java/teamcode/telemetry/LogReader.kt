@@ -0,0 +1,201 @@
+package teamcode.telemetry
+
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileWriter
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.util.Locale
+
+/**
+ * Reads DataLogger files on a computer and converts them to CSV.
+ *
+ * Runs on any JVM, no robot needed. Copy log-<ms>.bin off the Control Hub
+ * (FIRST/data), then:
+ * ```
+ * LogReader log-123.bin log-123.csv      one row per record: time_s,channel,value
+ * LogReader log-123.bin --columns out/   one time_s,value file per channel
+ * ```
+ * Records are in the order they were logged; enum values are written by name.
+ */
+object LogReader {
+
+    /**
+     * A log file decoded into columns, oldest record first.
+     */
+    class Log(
+        /** Channel names, by channel ID */
+        val channels: Array<String>,
+        /** Enum constant names per channel, empty for non-enum channels */
+        val enumNames: Array<Array<String>>,
+        /** Wall clock time the log started (System.currentTimeMillis()) */
+        val startMillis: Long,
+        /** Records lost to the ring wrapping around */
+        val overwritten: Long,
+        val timesNanos: LongArray,
+        val channelIds: IntArray,
+        val types: IntArray,
+        val values: LongArray,
+    ) {
+        val size: Int get() = timesNanos.size
+
+        /**
+         * Record [i]'s value as text: decimal numbers, true/false or the enum constant name.
+         */
+        fun valueText(i: Int): String {
+            val value = values[i]
+            return when (types[i]) {
+                DataLogger.DOUBLE -> java.lang.Double.longBitsToDouble(value).toString()
+                DataLogger.BOOLEAN -> (value != 0L).toString()
+                DataLogger.ENUM -> enumNames.getOrNull(channelIds[i])?.getOrNull(value.toInt()) ?: value.toString()
+                else -> value.toString()
+            }
+        }
+
+        fun channelName(i: Int): String = channels.getOrNull(channelIds[i]) ?: "channel ${channelIds[i]}"
+    }
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        if (args.isEmpty()) {
+            System.err.println("Usage: LogReader <log.bin> [out.csv | --columns <dir>]")
+            return
+        }
+        val log = read(File(args[0]))
+        println("${log.size} records, ${log.channels.size} channels, ${log.overwritten} overwritten")
+
+        when {
+            args.size >= 3 && args[1] == "--columns" -> writeColumns(log, File(args[2]))
+            args.size >= 2 -> writeCsv(log, File(args[1]))
+            else -> writeCsv(log, File(args[0].removeSuffix(".bin") + ".csv"))
+        }
+    }
+
+    /**
+     * Decode a whole log file. Slots that were never written or were being
+     * written when the log stopped are skipped.
+     */
+    fun read(file: File): Log {
+        val buffer = RandomAccessFile(file, "r").use { raf ->
+            raf.channel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length())
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN)
+
+        require(buffer.getLong(0) == DataLogger.MAGIC) { "${file.name} is not a DataLogger file" }
+        val version = buffer.getInt(DataLogger.HEADER_VERSION)
+        require(version == DataLogger.VERSION) { "Unsupported log version $version" }
+        val recordBytes = buffer.getInt(DataLogger.HEADER_RECORD_BYTES)
+        val capacity = buffer.getLong(DataLogger.HEADER_CAPACITY)
+        val startMillis = buffer.getLong(DataLogger.HEADER_START_MILLIS)
+        val namesBytes = buffer.getInt(DataLogger.HEADER_NAMES_BYTES)
+        val recordsOffset = DataLogger.HEADER_BYTES + namesBytes
+
+        val (channels, enumNames) = readNames(buffer)
+
+        // Valid slots hold the sequence number of the record written there last
+        val sequences = ArrayList<Long>()
+        val slots = ArrayList<Int>()
+        for (slot in 0 until capacity.toInt()) {
+            val sequence = buffer.getLong(recordsOffset + slot * recordBytes + DataLogger.RECORD_SEQUENCE)
+            if (sequence == 0L || (sequence - 1) % capacity != slot.toLong()) continue
+            sequences.add(sequence)
+            slots.add(slot)
+        }
+        val order = slots.indices.sortedBy { sequences[it] }
+
+        val count = order.size
+        val times = LongArray(count)
+        val ids = IntArray(count)
+        val types = IntArray(count)
+        val values = LongArray(count)
+        for ((n, index) in order.withIndex()) {
+            val offset = recordsOffset + slots[index] * recordBytes
+            times[n] = buffer.getLong(offset + DataLogger.RECORD_TIME)
+            ids[n] = buffer.getInt(offset + DataLogger.RECORD_CHANNEL)
+            types[n] = buffer.getInt(offset + DataLogger.RECORD_TYPE)
+            values[n] = buffer.getLong(offset + DataLogger.RECORD_VALUE)
+        }
+        val newest = if (count > 0) sequences[order.last()] else 0L
+        val overwritten = (newest - count).coerceAtLeast(0L)
+
+        return Log(channels, enumNames, startMillis, overwritten, times, ids, types, values)
+    }
+
+    private fun readNames(buffer: ByteBuffer): Pair<Array<String>, Array<Array<String>>> {
+        val count = buffer.getInt(DataLogger.HEADER_BYTES)
+        var position = DataLogger.HEADER_BYTES + 4
+        val channels = ArrayList<String>(count)
+        val enumNames = ArrayList<Array<String>>(count)
+
+        fun string(): String {
+            val length = buffer.getShort(position).toInt() and 0xFFFF
+            val bytes = ByteArray(length)
+            for (i in 0 until length) bytes[i] = buffer.get(position + 2 + i)
+            position += 2 + length
+            return String(bytes, Charsets.UTF_8)
+        }
+
+        for (id in 0 until count) {
+            channels.add(string())
+            val constants = buffer.getShort(position).toInt() and 0xFFFF
+            position += 2
+            enumNames.add(Array(constants) { string() })
+        }
+        return Pair(channels.toTypedArray(), enumNames.toTypedArray())
+    }
+
+    /**
+     * One row per record, in logged order.
+     */
+    fun writeCsv(log: Log, file: File) {
+        BufferedWriter(FileWriter(file)).use { out ->
+            out.write("time_s,channel,value\n")
+            for (i in 0 until log.size) {
+                out.write(seconds(log.timesNanos[i]))
+                out.write(",")
+                writeField(out, log.channelName(i))
+                out.write(",")
+                writeField(out, log.valueText(i))
+                out.write("\n")
+            }
+        }
+        println("Wrote ${file.path}")
+    }
+
+    /**
+     * One time_s,value file per channel in [directory], for loading channels as columns.
+     */
+    fun writeColumns(log: Log, directory: File) {
+        directory.mkdirs()
+        val writers = HashMap<Int, BufferedWriter>()
+        try {
+            for (i in 0 until log.size) {
+                val out = writers.getOrPut(log.channelIds[i]) {
+                    val name = log.channelName(i).replace(Regex("[^A-Za-z0-9._-]+"), "_")
+                    BufferedWriter(FileWriter(File(directory, "$name.csv"))).also {
+                        it.write("time_s,value\n")
+                    }
+                }
+                out.write(seconds(log.timesNanos[i]))
+                out.write(",")
+                writeField(out, log.valueText(i))
+                out.write("\n")
+            }
+        } finally {
+            for (out in writers.values) out.close()
+        }
+        println("Wrote ${writers.size} channels to ${directory.path}")
+    }
+
+    private fun seconds(nanos: Long) = String.format(Locale.ROOT, "%.6f", nanos / 1e9)
+
+    private fun writeField(out: BufferedWriter, value: String) {
+        if (value.none { it == ',' || it == '"' || it == '\n' }) {
+            out.write(value)
+        } else {
+            out.write("\"" + value.replace("\"", "\"\"") + "\"")
+        }
+    }
+}
@@ -2,8 +2,10 @@ package teamcode.telemetry
 
 import com.bylazar.telemetry.PanelsTelemetry
 import org.firstinspires.ftc.robotcore.external.Telemetry
+import org.firstinspires.ftc.robotcore.external.Telemetry.Item
 import java.util.Locale
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
 
 /**
  * Unified thread-safe telemetry system that works with multiple threads.
@@ -16,9 +18,19 @@ import java.util.concurrent.ConcurrentHashMap
  *
  * Usage:
  * - In threads: robotTelemetry.addData("key", value)
- * - In main loop: robotTelemetry.update()
+ * - TelemetryPublisher sends it to the Driver Station and Panels at its own rate
  *
  * Each thread gets its own namespace automatically based on thread name.
+ *
+ * Each namespace is a TelemetryWriter with preallocated, buffer-swapped slots.
+ * RobotThreads write through their own writer handle; addData() here finds the
+ * calling thread's writer with one ThreadLocal lookup.
+ *
+ * Publishing only sends what changed: the Driver Station keeps one retained
+ * Item per entry and only the values that changed are set, and Panels is
+ * skipped entirely when no namespace changed since it was last sent.
+ * Quiet entries (TelemetryChannel.quiet) only count as changes on passes that
+ * include them, so per-iteration stats don't force a send every time.
  */
 class RobotTelemetry(
     /**
@@ -29,10 +41,16 @@ class RobotTelemetry(
     // The original FTC telemetry object
     val ftcTelemetry: Telemetry?
 ) {
-    // Store telemetry data per namespace (thread)
-    private val telemetryData: ConcurrentHashMap<String, ConcurrentHashMap<String, Any>> = ConcurrentHashMap()
-    private val namespaceOrder: ConcurrentHashMap<String, Long> = ConcurrentHashMap()
-    private var nextOrder = 0L
+    // One writer per namespace, in the order namespaces were first used
+    private val writers = ConcurrentHashMap<String, TelemetryWriter>()
+    private val writerOrder = CopyOnWriteArrayList<TelemetryWriter>()
+
+    // Publish state per namespace, in the same order (publisher thread only after registration)
+    private val displays = CopyOnWriteArrayList<Display>()
+
+    // Namespaces included in the current Driver Station layout / last Panels update
+    private var driverStationNamespaces = -1
+    private var panelsNamespaces = -1
 
     /**
      * Get the PanelsTelemetry instance.
@@ -42,29 +60,38 @@ class RobotTelemetry(
     val panelsTelemetry: PanelsTelemetry = PanelsTelemetry
     private var usePanelsTelemetry = true
 
-    // Current namespace for thread-local operations
-    private val currentNamespace: ThreadLocal<String> =
-        ThreadLocal.withInitial { "Main" }
-
-    // Staging buffer for atomic updates - prevents flickering
-    private val stagingBuffer: ThreadLocal<ConcurrentHashMap<String, Any>?> =
-        ThreadLocal.withInitial { null }
-    private val stagingMode: ThreadLocal<Boolean> =
-        ThreadLocal.withInitial { false }
+    // Writer for the current thread's namespace
+    private val currentWriter: ThreadLocal<TelemetryWriter> =
+        ThreadLocal.withInitial { writer(DEFAULT_NAMESPACE) }
 
     var namespace: String?
         /**
          * Get the current namespace for this thread.
          */
-        get() = currentNamespace.get()
+        get() = currentWriter.get()!!.namespace
         /**
          * Set the namespace for the current thread.
-         * This is automatically called by RobotThread, but you can call it manually.
          * @param namespace The namespace (usually thread name)
          */
         set(namespace) {
-            currentNamespace.set(namespace)
+            currentWriter.set(writer(namespace ?: DEFAULT_NAMESPACE))
+        }
+
+    /**
+     * Get the writer handle for [namespace], creating it on first use.
+     * Hold on to it and write through it directly to skip the per-call lookup.
+     */
+    fun writer(namespace: String): TelemetryWriter {
+        writers[namespace]?.let { return it }
+        synchronized(writers) {
+            return writers.getOrPut(namespace) {
+                TelemetryWriter(namespace).also {
+                    writerOrder.add(it)
+                    displays.add(Display(it))
+                }
+            }
         }
+    }
 
     /**
      * Add telemetry data. Works like standard telemetry.addData().
@@ -73,19 +100,23 @@ class RobotTelemetry(
      * @param value The telemetry value
      */
     fun addData(key: String, value: Any) {
-        // Write to staging buffer if in staging mode
-        if (stagingMode.get()!!) {
-            stagingBuffer.get()?.put(key, value)
-            return
-        }
+        currentWriter.get()!!.addData(key, value)
+    }
+
+    fun addData(key: String, value: Double) {
+        currentWriter.get()!!.addData(key, value)
+    }
+
+    fun addData(key: String, value: Long) {
+        currentWriter.get()!!.addData(key, value)
+    }
 
-        // Normal mode - write directly to telemetry data
-        val namespace = currentNamespace.get()
-        if (namespace == null) return
-        telemetryData.computeIfAbsent(namespace) { k ->
-            namespaceOrder.putIfAbsent(k, nextOrder++)
-            ConcurrentHashMap()
-        }.put(key, value)
+    fun addData(key: String, value: Int) {
+        currentWriter.get()!!.addData(key, value)
+    }
+
+    fun addData(key: String, value: Boolean) {
+        currentWriter.get()!!.addData(key, value)
     }
 
     /**
@@ -95,9 +126,7 @@ class RobotTelemetry(
      * @param args Format arguments
      */
     fun addData(key: String, format: String, vararg args: Any?) {
-        val value = String.format(format, *args)
-        // Explicitly call the (String, Any) overload to avoid ambiguity with (String, String, vararg)
-        addData(key, value as Any)
+        currentWriter.get()!!.addData(key, format, *args)
     }
 
     /**
@@ -108,32 +137,14 @@ class RobotTelemetry(
      * @param value The telemetry value
      */
     fun addData(namespace: String, key: String, value: Any) {
-        // This method always writes directly, bypassing staging
-        // (typically used by main loop which doesn't need staging)
-        telemetryData.computeIfAbsent(namespace) { k ->
-            namespaceOrder.putIfAbsent(k, nextOrder++)
-            ConcurrentHashMap()
-        }.put(key, value)
-    }
-
-    /**
-     * Remove a specific data entry from current namespace.
-     * @param key The key to remove
-     */
-    fun removeData(key: String) {
-        val namespace = currentNamespace.get()
-        if (namespace == null) return
-        telemetryData[namespace]?.remove(key)
+        writer(namespace).addData(key, value)
     }
 
     /**
      * Clear all data for current namespace.
      */
     fun clearNamespace() {
-        val namespace = currentNamespace.get()
-        if (namespace == null) return
-        telemetryData.remove(namespace)
-        namespaceOrder.remove(namespace)
+        currentWriter.get()!!.clear()
     }
 
     /**
@@ -141,135 +152,227 @@ class RobotTelemetry(
      * @param namespace The namespace to clear
      */
     fun clearNamespace(namespace: String) {
-        telemetryData.remove(namespace)
-        namespaceOrder.remove(namespace)
+        writers[namespace]?.clear()
     }
 
     /**
      * Clear all telemetry data from all namespaces.
      */
     fun clearAll() {
-        telemetryData.clear()
-        namespaceOrder.clear()
-        nextOrder = 0
+        for (writer in writerOrder) {
+            writer.clear()
+        }
     }
 
     /**
-     * Update all telemetry outputs (FTC Driver Station and PanelsTelemetry dashboard).
-     * Call this once per loop in your main OpMode.
+     * What has been sent for one namespace.
      */
-    fun update() {
-        // Update FTC telemetry
-        if (ftcTelemetry != null) {
-            updateFtcTelemetry()
-        }
+    private class Display(val writer: TelemetryWriter) {
+        /** Copy of the frame the Driver Station items show */
+        val driverStation = TelemetryFrame()
+        /** Driver Station items for driverStation's entries, by slot */
+        val items = ArrayList<Item>()
+        /** Copy of the frame last sent to Panels */
+        val panels = TelemetryFrame()
+        /** Last rendered lazy values, reused until lazy entries are rendered again */
+        val lazyValues = TelemetryFrame()
+    }
 
+    // Current publish pass, and whether it renders lazy entries (publisher thread only)
+    private var pass = 0L
+    private var renderLazy = true
 
-        // Update PanelsTelemetry if available
-        if (usePanelsTelemetry) {
-            updatePanelsTelemetry()
-        }
+    /**
+     * Start a publish pass. Lazy entries are rendered at most once per pass, and only
+     * evaluated again when [renderLazy] is set; otherwise their last values are reused.
+     */
+    fun beginPublish(renderLazy: Boolean) {
+        pass++
+        this.renderLazy = renderLazy
     }
 
     /**
-     * Update FTC telemetry with all stored data.
+     * The newest frame of [display], with its lazy entries rendered for this pass.
      */
-    private fun updateFtcTelemetry() {
-        val telemetry = ftcTelemetry ?: return
-        
-        // Sort namespaces by order and add data
-        telemetryData.keys.stream()
-            .sorted { a: String, b: String ->
-                namespaceOrder.getOrDefault(a, Long.MAX_VALUE)
-                    .compareTo(namespaceOrder.getOrDefault(b, Long.MAX_VALUE))
+    private fun latest(display: Display): TelemetryFrame {
+        val frame = display.writer.read()
+        frame.renderLazy(pass, display.lazyValues, renderLazy)
+        return frame
+    }
+
+    init {
+        // Items are kept and updated in place instead of re-added every update
+        ftcTelemetry?.setAutoClear(false)
+    }
+
+    /**
+     * Publish to both the FTC Driver Station and PanelsTelemetry dashboard right away.
+     * While the OpMode runs TelemetryPublisher does this; call it directly only
+     * when no publisher is running (e.g. during init).
+     */
+    fun update() {
+        beginPublish(renderLazy = true)
+        publishDriverStation()
+        publishPanels()
+    }
+
+    /**
+     * Send changed data to the Driver Station.
+     *
+     * Values that changed are set on their retained items; a namespace gaining,
+     * losing or reordering keys (or a new namespace) rebuilds the item list.
+     * Nothing is sent if nothing changed.
+     *
+     * @param includeQuiet Also send changed quiet entries, and count them as changes
+     * @return Whether anything was sent
+     */
+    fun publishDriverStation(includeQuiet: Boolean = true): Boolean {
+        val telemetry = ftcTelemetry ?: return false
+
+        var rebuild = driverStationNamespaces != displays.size
+        var changed = false
+        for (display in displays) {
+            val frame = latest(display)
+            val sent = display.driverStation
+            // A frame already sent can still have newly rendered lazy values
+            if (frame.sequence == sent.sequence && !renderLazy) continue
+            if (rebuild || !frame.sameLayout(sent)) {
+                rebuild = true
+                continue
             }
-            .forEach { namespace: String ->
-                val data = telemetryData[namespace]
-                if (data != null && data.isNotEmpty()) {
-                    // Add namespace header
-                    telemetry.addData(
-                        "=== ${namespace.uppercase(Locale.getDefault())} ===",
-                        ""
-                    )
-
-                    // Add all data entries for this namespace
-                    data.forEach { (key, value) ->
-                        telemetry.addData(key, value)
-                    }
-
-                    // Add blank line between namespaces
-                    telemetry.addData("", "")
+            for (i in 0 until frame.count) {
+                if (!frame.sameValue(i, sent, includeQuiet)) {
+                    display.items[i].setValue(frame.value(i))
+                    sent.copySlot(i, frame)
+                    changed = true
                 }
             }
+            // Skipped quiet entries still have to be compared on a later pass
+            if (includeQuiet) sent.sequence = frame.sequence
+        }
 
+        if (rebuild) {
+            rebuildDriverStation(telemetry)
+        } else if (!changed) {
+            return false
+        }
         telemetry.update()
+        return true
     }
 
     /**
-     * Update PanelsTelemetry dashboard with all stored data.
+     * Replace every Driver Station item with the latest data.
      */
-    private fun updatePanelsTelemetry() {
-        // Add all namespaces to the dashboard
-        telemetryData.keys.stream()
-            .sorted { a: String, b: String ->
-                namespaceOrder.getOrDefault(a, Long.MAX_VALUE)
-                    .compareTo(namespaceOrder.getOrDefault(b, Long.MAX_VALUE))
+    private fun rebuildDriverStation(telemetry: Telemetry) {
+        telemetry.clearAll()
+        driverStationNamespaces = displays.size
+
+        for (display in displays) {
+            val frame = latest(display)
+            display.driverStation.copyFrom(frame)
+            display.items.clear()
+            if (frame.count == 0) continue
+
+            // Add namespace header
+            telemetry.addData(header(display.writer.namespace), "")
+
+            // Add all data entries for this namespace
+            for (i in 0 until frame.count) {
+                display.items.add(telemetry.addData(frame.key(i), frame.value(i)))
             }
-            .forEach { namespace: String ->
-                val data = telemetryData[namespace]
-                if (data != null && data.isNotEmpty()) {
-                    // Add namespace header
-                    panelsTelemetry.telemetry.addData(
-                        "=== ${namespace.uppercase(Locale.getDefault())} ===",
-                        ""
-                    )
-
-                    data.forEach { (key, value) ->
-                        val fullKey = "$namespace/$key"
-                        panelsTelemetry.telemetry.addData(fullKey, value)
-                    }
+
+            // Add blank line between namespaces
+            telemetry.addData("", "")
+        }
+    }
+
+    /**
+     * Send all data to PanelsTelemetry if any namespace changed since the last send.
+     * Panels replaces its lines on every update, so a changed update includes every namespace.
+     *
+     * @param includeQuiet Count changed quiet entries as changes
+     * @return Whether anything was sent
+     */
+    fun publishPanels(includeQuiet: Boolean = true): Boolean {
+        if (!usePanelsTelemetry) return false
+
+        var changed = panelsNamespaces != displays.size
+        if (!changed) {
+            for (display in displays) {
+                val frame = latest(display)
+                if (frame.sequence == display.panels.sequence && !renderLazy) continue
+                if (!sameContent(frame, display.panels, includeQuiet)) {
+                    changed = true
+                    break
                 }
             }
+        }
+        // Unchanged frames aren't copied, so quiet changes are still seen on a later pass
+        if (!changed) return false
+        panelsNamespaces = displays.size
+
+        for (display in displays) {
+            val frame = display.panels
+            frame.copyFrom(latest(display))
+            if (frame.count == 0) continue
+
+            // Add namespace header
+            panelsTelemetry.telemetry.addData(header(display.writer.namespace), "")
+
+            for (i in 0 until frame.count) {
+                panelsTelemetry.telemetry.addData("${display.writer.namespace}/${frame.key(i)}", frame.value(i))
+            }
+        }
 
-        // Update PanelsTelemetry and mirror to FTC telemetry
         panelsTelemetry.telemetry.update()
+        return true
+    }
+
+    private fun sameContent(frame: TelemetryFrame, other: TelemetryFrame, includeQuiet: Boolean): Boolean {
+        if (!frame.sameLayout(other)) return false
+        for (i in 0 until frame.count) {
+            if (!frame.sameValue(i, other, includeQuiet)) return false
+        }
+        return true
     }
 
+    private fun header(namespace: String) = "=== ${namespace.uppercase(Locale.getDefault())} ==="
+
     /**
      * Get all data for a specific namespace.
+     * Reads like the publisher, so call it from the same thread.
      * @param namespace The namespace
      * @return Map of key-value pairs, or null if namespace doesn't exist
      */
     fun getNamespaceData(namespace: String): MutableMap<String, Any>? {
-        val data = telemetryData[namespace]
-        return data?.let { LinkedHashMap(it) }
+        val frame = writers[namespace]?.read() ?: return null
+        val data = LinkedHashMap<String, Any>()
+        for (i in 0 until frame.count) {
+            data[frame.key(i)] = frame.value(i)
+        }
+        return data
     }
 
     val formattedString: String
         /**
          * Get a formatted string representation of all telemetry data.
+         * Reads like the publisher, so call it from the same thread.
          * @return Formatted string with all telemetry data
          */
         get() {
             val sb = StringBuilder()
 
-            telemetryData.keys.stream()
-                .sorted { a: String, b: String ->
-                    namespaceOrder.getOrDefault(a, Long.MAX_VALUE)
-                        .compareTo(namespaceOrder.getOrDefault(b, Long.MAX_VALUE))
-                }
-                .forEach { namespace: String ->
-                    val data = telemetryData[namespace]
-                    if (data != null && data.isNotEmpty()) {
-                        sb.append("=== ")
-                            .append(namespace.uppercase(Locale.getDefault()))
-                            .append(" ===\n")
-                        data.forEach { (key, value) ->
-                            sb.append(key).append(": ").append(value).append("\n")
-                        }
-                        sb.append("\n")
-                    }
+            for (writer in writerOrder) {
+                val frame = writer.read()
+                if (frame.count == 0) continue
+                sb.append("=== ")
+                    .append(writer.namespace.uppercase(Locale.getDefault()))
+                    .append(" ===\n")
+                for (i in 0 until frame.count) {
+                    sb.append(frame.key(i)).append(": ").append(frame.value(i)).append("\n")
                 }
+                sb.append("\n")
+            }
 
             return sb.toString()
         }
@@ -279,16 +382,17 @@ class RobotTelemetry(
          * Get all namespaces.
          * @return Array of namespace names
          */
-        get() = telemetryData.keys.toTypedArray()
+        get() = Array(writerOrder.size) { writerOrder[it].namespace }
 
     /**
      * Check if a namespace exists and has data.
+     * Reads like the publisher, so call it from the same thread.
      * @param namespace The namespace to check
      * @return true if namespace exists and has data
      */
     fun hasNamespace(namespace: String): Boolean {
-        val data = telemetryData[namespace]
-        return data != null && data.isNotEmpty()
+        val frame = writers[namespace]?.read() ?: return false
+        return frame.count > 0
     }
 
     var isPanelsTelemetryEnabled: Boolean
@@ -307,37 +411,21 @@ class RobotTelemetry(
 
     /**
      * Begin staging mode for atomic updates.
-     * Creates a new staging buffer for the current thread.
-     * All addData() calls will write to the staging buffer until commitStaging() is called.
+     * All addData() calls for this thread's namespace go to a fresh frame until
+     * commitStaging() is called.
      * This prevents flickering by ensuring the main loop never sees empty/partial data.
      */
     fun beginStaging() {
-        stagingMode.set(true)
-        stagingBuffer.set(ConcurrentHashMap())
+        currentWriter.get()!!.begin()
     }
 
     /**
      * Commit the staging buffer atomically.
-     * Replaces the current namespace's data with the staging buffer in a single atomic operation.
+     * Replaces the current namespace's data with the staged frame in one swap.
      * This ensures the main loop always sees complete data (never empty).
      */
     fun commitStaging() {
-        if (!stagingMode.get()!! || stagingBuffer.get() == null) {
-            return  // Not in staging mode, nothing to commit
-        }
-
-        val namespace = currentNamespace.get() ?: return
-        val staged = stagingBuffer.get() ?: return
-
-        // Atomic swap - namespace is never empty during this operation
-        telemetryData[namespace] = staged
-
-        // Ensure namespace order is tracked
-        namespaceOrder.putIfAbsent(namespace, nextOrder++)
-
-        // Clear staging state
-        stagingMode.set(false)
-        stagingBuffer.set(null)
+        currentWriter.get()!!.commit()
     }
 
     /**
@@ -345,8 +433,10 @@ class RobotTelemetry(
      * Used when an exception occurs during runLoop() to prevent corrupted telemetry.
      */
     fun discardStaging() {
-        stagingMode.set(false)
-        stagingBuffer.set(null)
+        currentWriter.get()!!.discard()
     }
-}
 
+    companion object {
+        private const val DEFAULT_NAMESPACE = "Main"
+    }
+}
@@ -0,0 +1,73 @@
+package teamcode.telemetry
+
+/**
+ * A typed telemetry key with its display format.
+ *
+ * Channels are declared once (as fields, before the thread has its writer) and
+ * written every loop through TelemetryWriter.addData(channel, value). The value is
+ * stored as a raw primitive and [format] is only applied by the publisher when the
+ * entry is actually sent, so control threads never run String.format or box:
+ * ```
+ * private val targetAngleChannel = DoubleChannel("Target Angle", "%.2f°")
+ * ...
+ * telemetry.addData(targetAngleChannel, targetAngle)
+ * ```
+ *
+ * Counters and timing stats that change every iteration should be quiet, so they
+ * don't make the publisher resend their namespace every time:
+ * ```
+ * private val iterationsChannel = LongChannel("Loop Iterations", quiet = true)
+ * ```
+ */
+sealed class TelemetryChannel(
+    val name: String,
+    /** String.format pattern applied when rendered, or null to show the raw value */
+    val format: String?,
+    /**
+     * A change to a quiet entry doesn't count as a change of its namespace. Quiet
+     * values go out with the next real change, or every TelemetryConfig.quietIntervalMs,
+     * and aren't recorded by DataLogger.
+     */
+    val quiet: Boolean
+) {
+    /** Writer this channel's key is registered with, and its key ID there */
+    internal var writer: TelemetryWriter? = null
+    internal var id: Int = -1
+}
+
+class DoubleChannel(name: String, format: String? = null, quiet: Boolean = false) : TelemetryChannel(name, format, quiet)
+
+class IntChannel(name: String, format: String? = null, quiet: Boolean = false) : TelemetryChannel(name, format, quiet)
+
+class LongChannel(name: String, format: String? = null, quiet: Boolean = false) : TelemetryChannel(name, format, quiet)
+
+class BoolChannel(name: String) : TelemetryChannel(name, null, false)
+
+class EnumChannel<E : Enum<E>>(name: String) : TelemetryChannel(name, null, false)
+
+/**
+ * Computes a telemetry value when it is rendered.
+ */
+fun interface TelemetrySupplier {
+    fun get(): Any?
+}
+
+/**
+ * An entry whose value is only computed by the publisher - for values that are
+ * expensive to read or format and only needed on the display.
+ *
+ * The supplier runs on the publisher thread, at most once per
+ * TelemetryConfig.driverStationIntervalMs; the rendered value is shared by the
+ * Driver Station and Panels and compared like any other value to decide whether
+ * the namespace changed. It must be safe to call from the publisher thread.
+ * ```
+ * private val rgbChannel = LazyChannel("RGB") { "R:${sensor.red()} G:${sensor.green()}" }
+ * ...
+ * telemetry.addData(rgbChannel)
+ * ```
+ */
+class LazyChannel(
+    name: String,
+    quiet: Boolean = false,
+    internal val supplier: TelemetrySupplier
+) : TelemetryChannel(name, null, quiet)
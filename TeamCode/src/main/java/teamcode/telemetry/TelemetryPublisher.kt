@@ -0,0 +1,76 @@
+package teamcode.telemetry
+
+import com.bylazar.configurables.annotations.Configurable
+import teamcode.threading.LoopMode
+import teamcode.threading.RobotThread
+import java.util.concurrent.TimeUnit
+
+@Configurable
+object TelemetryConfig {
+    /** Minimum time between Driver Station updates */
+    @JvmField
+    var driverStationIntervalMs: Long = 100
+    /** Quiet entries (loop stats, counters) are sent at least this often */
+    @JvmField
+    var quietIntervalMs: Long = 1000
+}
+
+/**
+ * Sends RobotTelemetry to the Driver Station and Panels on its own thread, so
+ * no control loop ever waits on telemetry I/O.
+ *
+ * Runs at the Panels rate (20 Hz) and updates the Driver Station every
+ * TelemetryConfig.driverStationIntervalMs (10 Hz). Each update only sends
+ * namespaces whose data changed since the last one - see RobotTelemetry.
+ * Quiet entries only count as changes every TelemetryConfig.quietIntervalMs,
+ * which is also how often this thread's own counters are refreshed.
+ *
+ * Created automatically by ThreadedOpMode.
+ */
+class TelemetryPublisher(
+    private val root: RobotTelemetry
+) : RobotThread("Telemetry", PANELS_INTERVAL_MS) {
+
+    private var lastDriverStationNanos = 0L
+    private var lastDriverStationQuietNanos = 0L
+    private var lastPanelsQuietNanos = 0L
+    private var driverStationUpdates = 0L
+    private var panelsUpdates = 0L
+    private var skipped = 0L
+
+    private val driverStationUpdatesChannel = LongChannel("Driver Station Updates", quiet = true)
+    private val panelsUpdatesChannel = LongChannel("Panels Updates", quiet = true)
+    private val skippedChannel = LongChannel("Skipped (unchanged)", quiet = true)
+
+    init {
+        loopMode = LoopMode.FIXED_RATE
+    }
+
+    override fun runLoop() {
+        val now = System.nanoTime()
+        val quietInterval = TimeUnit.MILLISECONDS.toNanos(TelemetryConfig.quietIntervalMs)
+        val driverStationDue =
+            now - lastDriverStationNanos >= TimeUnit.MILLISECONDS.toNanos(TelemetryConfig.driverStationIntervalMs)
+
+        // Lazy entries are only evaluated at the Driver Station rate; Panels passes in between reuse them
+        root.beginPublish(renderLazy = driverStationDue)
+
+        if (driverStationDue) {
+            lastDriverStationNanos = now
+            val includeQuiet = now - lastDriverStationQuietNanos >= quietInterval
+            if (includeQuiet) lastDriverStationQuietNanos = now
+            if (root.publishDriverStation(includeQuiet)) driverStationUpdates++ else skipped++
+        }
+        val includeQuiet = now - lastPanelsQuietNanos >= quietInterval
+        if (includeQuiet) lastPanelsQuietNanos = now
+        if (root.publishPanels(includeQuiet)) panelsUpdates++ else skipped++
+
+        telemetry.addData(driverStationUpdatesChannel, driverStationUpdates)
+        telemetry.addData(panelsUpdatesChannel, panelsUpdates)
+        telemetry.addData(skippedChannel, skipped)
+    }
+
+    private companion object {
+        const val PANELS_INTERVAL_MS = 50L
+    }
+}
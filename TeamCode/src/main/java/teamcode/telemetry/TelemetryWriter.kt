@@ -0,0 +1,457 @@
+package teamcode.telemetry
+
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Telemetry handle for one namespace, owned by the thread that writes it.
+ *
+ * Values go into preallocated slots - primitives are stored unboxed - and a
+ * finished frame is published by swapping buffers, so the steady-state write
+ * path allocates nothing and takes no locks:
+ *
+ * - begin() starts an empty back frame
+ * - addData() fills it; a key repeated in one frame overwrites its slot
+ * - commit() publishes it as the namespace's data in one swap
+ *
+ * Three frames rotate between the writer (back), the latest published frame and
+ * the reader (front), so neither side ever waits for the other. The reader keeps
+ * showing its front frame until a newer one is published.
+ *
+ * Keys can be registered once with key() and written by ID, which also skips
+ * the key lookup:
+ * ```
+ * private val velocityKey = telemetry.key("Velocity")
+ * ...
+ * telemetry.addData(velocityKey, velocity)
+ * ```
+ * or declared as typed TelemetryChannels, which also carry a display format that
+ * is only applied when the publisher renders the value.
+ *
+ * Outside begin()/commit() each addData() is published immediately on top of
+ * the previous data, like the old direct writes.
+ *
+ * Primitive and enum values are also sent to DataLogger as "namespace/key" channels,
+ * except those of quiet channels.
+ *
+ * One writer thread at a time; RobotTelemetry's publish methods are the only reader.
+ */
+class TelemetryWriter internal constructor(
+    /** Namespace this writer publishes, usually the thread name */
+    val namespace: String
+) {
+    /** Registered keys, by ID. Only touched by the writer thread. */
+    private val keyIds = HashMap<String, Int>()
+    private var keyNames = arrayOfNulls<String>(INITIAL_KEYS)
+    /** DataLogger channel of each key, -1 for quiet keys */
+    private var channels = IntArray(INITIAL_KEYS)
+    /** Display format of each key, from its TelemetryChannel */
+    private var formats = arrayOfNulls<String>(INITIAL_KEYS)
+    /** Whether each key is quiet, from its TelemetryChannel */
+    private var quietKeys = BooleanArray(INITIAL_KEYS)
+
+    private val frames = arrayOf(TelemetryFrame(), TelemetryFrame(), TelemetryFrame())
+
+    /** Frame being written (writer thread only) */
+    private var back = 0
+
+    /** Latest published frame index, with FRESH set until the reader picks it up */
+    private val latest = AtomicInteger(1)
+
+    /** Frame being displayed (reader thread only) */
+    private var front = 2
+
+    private var staging = false
+
+    /** Frames published so far (writer thread only) */
+    private var published = 0L
+
+    /**
+     * Register [name] and return its ID. Registering the same name again returns the same ID.
+     */
+    fun key(name: String): Int {
+        val existing = keyIds[name]
+        if (existing != null) return existing
+        val id = keyIds.size
+        if (id == keyNames.size) {
+            keyNames = keyNames.copyOf(id * 2)
+            channels = channels.copyOf(id * 2)
+            formats = formats.copyOf(id * 2)
+            quietKeys = quietKeys.copyOf(id * 2)
+        }
+        keyNames[id] = name
+        channels[id] = DataLogger.channel("$namespace/$name")
+        keyIds[name] = id
+        return id
+    }
+
+    /**
+     * Register [channel]'s key with this writer the first time it is used here.
+     */
+    private fun bind(channel: TelemetryChannel): Int {
+        if (channel.writer !== this) {
+            val id = key(channel.name)
+            formats[id] = channel.format
+            quietKeys[id] = channel.quiet
+            // Per-iteration stats would fill the log ring several times over in a match
+            if (channel.quiet) channels[id] = -1
+            channel.id = id
+            channel.writer = this
+        }
+        return channel.id
+    }
+
+    /**
+     * Start a new frame. Until commit(), readers keep seeing the previous one.
+     */
+    fun begin() {
+        frames[back].reset()
+        staging = true
+    }
+
+    /**
+     * Publish the frame started by begin().
+     */
+    fun commit() {
+        if (!staging) return
+        staging = false
+        swap()
+    }
+
+    /**
+     * Drop the frame started by begin(); readers keep the previous one.
+     */
+    fun discard() {
+        staging = false
+    }
+
+    /**
+     * Publish an empty frame, removing this namespace from the display.
+     */
+    fun clear() {
+        begin()
+        commit()
+    }
+
+    fun addData(id: Int, value: Double) {
+        slot(id).putDouble(value)
+        DataLogger.log(channels[id], value)
+        published()
+    }
+
+    fun addData(id: Int, value: Long) {
+        slot(id).putLong(value, TelemetryFrame.LONG)
+        DataLogger.log(channels[id], value)
+        published()
+    }
+
+    fun addData(id: Int, value: Int) {
+        slot(id).putLong(value.toLong(), TelemetryFrame.INT)
+        DataLogger.log(channels[id], value)
+        published()
+    }
+
+    fun addData(id: Int, value: Boolean) {
+        slot(id).putLong(if (value) 1L else 0L, TelemetryFrame.BOOLEAN)
+        DataLogger.log(channels[id], value)
+        published()
+    }
+
+    fun addData(id: Int, value: Any) {
+        slot(id).putObject(value)
+        if (value is Enum<*>) DataLogger.log(channels[id], value)
+        published()
+    }
+
+    fun addData(channel: DoubleChannel, value: Double) = addData(bind(channel), value)
+    fun addData(channel: IntChannel, value: Int) = addData(bind(channel), value)
+    fun addData(channel: LongChannel, value: Long) = addData(bind(channel), value)
+    fun addData(channel: BoolChannel, value: Boolean) = addData(bind(channel), value)
+    fun <E : Enum<E>> addData(channel: EnumChannel<E>, value: E) = addData(bind(channel), value)
+
+    /**
+     * Add [channel]; its supplier is called when the publisher renders it.
+     */
+    fun addData(channel: LazyChannel) {
+        val id = bind(channel)
+        slot(id).putLazy(channel.supplier)
+        published()
+    }
+
+    fun addData(key: String, value: Double) = addData(this.key(key), value)
+    fun addData(key: String, value: Long) = addData(this.key(key), value)
+    fun addData(key: String, value: Int) = addData(this.key(key), value)
+    fun addData(key: String, value: Boolean) = addData(this.key(key), value)
+    fun addData(key: String, value: Any) = addData(this.key(key), value)
+
+    /**
+     * Add formatted data. Formats (and allocates) on every call - prefer a
+     * DoubleChannel/IntChannel with a format in loops.
+     */
+    fun addData(key: String, format: String, vararg args: Any?) {
+        addData(this.key(key), String.format(format, *args) as Any)
+    }
+
+    private fun slot(id: Int): TelemetryFrame =
+        frames[back].put(id, keyNames[id]!!, formats[id], quietKeys[id], keyNames.size)
+
+    /**
+     * Outside begin()/commit(), publish right away and carry the data over.
+     */
+    private fun published() {
+        if (staging) return
+        val previous = back
+        swap()
+        frames[back].copyFrom(frames[previous])
+    }
+
+    private fun swap() {
+        frames[back].sequence = ++published
+        back = latest.getAndSet(back or FRESH) and INDEX_MASK
+    }
+
+    /**
+     * The newest published frame. Reader thread only.
+     */
+    internal fun read(): TelemetryFrame {
+        if (latest.get() and FRESH != 0) {
+            front = latest.getAndSet(front) and INDEX_MASK
+        }
+        return frames[front]
+    }
+
+    private companion object {
+        const val INITIAL_KEYS = 16
+        const val FRESH = 4
+        const val INDEX_MASK = 3
+    }
+}
+
+/**
+ * One frame of a namespace's telemetry: slots in the order their keys were first
+ * written in the frame. Arrays grow only when a namespace uses more keys than ever before.
+ */
+internal class TelemetryFrame {
+    var count = 0
+        private set
+
+    /** Which publish of its writer this frame is, so readers can tell new frames from old */
+    var sequence = 0L
+
+    private var keys = arrayOfNulls<String>(INITIAL_SLOTS)
+    private var formats = arrayOfNulls<String>(INITIAL_SLOTS)
+    private var quiet = BooleanArray(INITIAL_SLOTS)
+    private var kinds = ByteArray(INITIAL_SLOTS)
+    private var doubles = DoubleArray(INITIAL_SLOTS)
+    private var longs = LongArray(INITIAL_SLOTS)
+    private var objects = arrayOfNulls<Any>(INITIAL_SLOTS)
+    /** Rendered value of each lazy slot, set by the reader in renderLazy() */
+    private var rendered = arrayOfNulls<Any>(INITIAL_SLOTS)
+
+    /** Publish pass that last rendered this frame's lazy slots (reader thread only) */
+    private var renderedPass = 0L
+
+    /** Slot of each key ID in this frame, valid when slotGeneration matches generation */
+    private var slotOfKey = IntArray(INITIAL_SLOTS)
+    private var slotGeneration = IntArray(INITIAL_SLOTS)
+    private var generation = 1
+
+    /** Slot being written by put() */
+    private var slot = 0
+
+    fun reset() {
+        count = 0
+        generation++
+        renderedPass = 0L
+    }
+
+    /**
+     * Select the slot for key [id], adding it if this frame doesn't have it yet.
+     */
+    fun put(id: Int, name: String, format: String?, quiet: Boolean, keyCapacity: Int): TelemetryFrame {
+        if (slotOfKey.size < keyCapacity) {
+            slotOfKey = slotOfKey.copyOf(keyCapacity)
+            slotGeneration = slotGeneration.copyOf(keyCapacity)
+        }
+        if (slotGeneration[id] == generation) {
+            slot = slotOfKey[id]
+        } else {
+            if (count == keys.size) grow(count * 2)
+            slot = count++
+            keys[slot] = name
+            formats[slot] = format
+            this.quiet[slot] = quiet
+            slotOfKey[id] = slot
+            slotGeneration[id] = generation
+        }
+        return this
+    }
+
+    fun putDouble(value: Double) {
+        kinds[slot] = DOUBLE
+        doubles[slot] = value
+        objects[slot] = null
+    }
+
+    fun putLong(value: Long, kind: Byte) {
+        kinds[slot] = kind
+        longs[slot] = value
+        objects[slot] = null
+    }
+
+    fun putObject(value: Any) {
+        kinds[slot] = OBJECT
+        objects[slot] = value
+    }
+
+    fun putLazy(supplier: TelemetrySupplier) {
+        kinds[slot] = LAZY
+        objects[slot] = supplier
+        rendered[slot] = null
+    }
+
+    fun key(slot: Int): String = keys[slot]!!
+
+    fun isQuiet(slot: Int): Boolean = quiet[slot]
+
+    /**
+     * The value in [slot] as the object FTC/Panels telemetry expects: formatted if
+     * its channel has a format, with lazy entries as last rendered (or evaluated now
+     * if they haven't been). Boxes and formats - this runs on the display side at display rate.
+     */
+    fun value(slot: Int): Any {
+        val format = formats[slot]
+        val value: Any = when (kinds[slot]) {
+            DOUBLE -> doubles[slot]
+            LONG -> longs[slot]
+            INT -> longs[slot].toInt()
+            BOOLEAN -> longs[slot] != 0L
+            LAZY -> return rendered[slot] ?: evaluate(objects[slot] as TelemetrySupplier)
+            else -> objects[slot]!!
+        }
+        return if (format != null) format.format(value) else value
+    }
+
+    /**
+     * Render every lazy slot once for publish pass [pass]. Calling it again in the
+     * same pass does nothing.
+     *
+     * Suppliers are only called when [evaluate] is set; otherwise the value rendered
+     * earlier for the same slot and supplier is taken from [cache]. A lazy entry
+     * [cache] doesn't have yet is always evaluated. [cache] is then updated.
+     */
+    fun renderLazy(pass: Long, cache: TelemetryFrame, evaluate: Boolean) {
+        if (renderedPass == pass) return
+        renderedPass = pass
+
+        var any = false
+        for (i in 0 until count) {
+            if (kinds[i] != LAZY) continue
+            any = true
+            val supplier = objects[i] as TelemetrySupplier
+            val cached = if (!evaluate && i < cache.count && cache.kinds[i] == LAZY && cache.objects[i] === supplier) {
+                cache.rendered[i]
+            } else {
+                null
+            }
+            rendered[i] = cached ?: evaluate(supplier)
+        }
+        if (any) cache.copyFrom(this)
+    }
+
+    private fun evaluate(supplier: TelemetrySupplier): Any {
+        return try {
+            supplier.get() ?: "null"
+        } catch (e: Exception) {
+            "Error: ${e.message}"
+        }
+    }
+
+    /**
+     * Whether this frame has the same keys in the same order as [other].
+     */
+    fun sameLayout(other: TelemetryFrame): Boolean {
+        if (count != other.count) return false
+        for (i in 0 until count) {
+            if (keys[i] != other.keys[i]) return false
+        }
+        return true
+    }
+
+    /**
+     * Whether [slot] holds the same value as the same slot of [other].
+     * Lazy entries are compared by their rendered values.
+     * @param includeQuiet Compare quiet entries too; otherwise they always count as the same
+     */
+    fun sameValue(slot: Int, other: TelemetryFrame, includeQuiet: Boolean): Boolean {
+        if (quiet[slot] && !includeQuiet) return true
+        val kind = kinds[slot]
+        if (kind != other.kinds[slot] || formats[slot] != other.formats[slot]) return false
+        return when (kind) {
+            LAZY -> rendered[slot] != null && rendered[slot] == other.rendered[slot]
+            OBJECT -> objects[slot] == other.objects[slot]
+            // Compare bits so NaN counts as unchanged
+            DOUBLE -> doubles[slot].toRawBits() == other.doubles[slot].toRawBits()
+            else -> longs[slot] == other.longs[slot]
+        }
+    }
+
+    fun copyFrom(other: TelemetryFrame) {
+        if (keys.size < other.count) grow(other.keys.size)
+        if (slotOfKey.size < other.slotOfKey.size) {
+            slotOfKey = slotOfKey.copyOf(other.slotOfKey.size)
+            slotGeneration = slotGeneration.copyOf(other.slotOfKey.size)
+        }
+        reset()
+        count = other.count
+        sequence = other.sequence
+        for (i in 0 until count) {
+            keys[i] = other.keys[i]
+            formats[i] = other.formats[i]
+            quiet[i] = other.quiet[i]
+            kinds[i] = other.kinds[i]
+            doubles[i] = other.doubles[i]
+            longs[i] = other.longs[i]
+            objects[i] = other.objects[i]
+            rendered[i] = other.rendered[i]
+        }
+        for (id in other.slotOfKey.indices) {
+            if (other.slotGeneration[id] == other.generation) {
+                slotOfKey[id] = other.slotOfKey[id]
+                slotGeneration[id] = generation
+            }
+        }
+    }
+
+    /**
+     * Copy [slot]'s value from the same slot of [other], which has the same layout.
+     */
+    fun copySlot(slot: Int, other: TelemetryFrame) {
+        kinds[slot] = other.kinds[slot]
+        doubles[slot] = other.doubles[slot]
+        longs[slot] = other.longs[slot]
+        objects[slot] = other.objects[slot]
+        rendered[slot] = other.rendered[slot]
+    }
+
+    private fun grow(size: Int) {
+        keys = keys.copyOf(size)
+        formats = formats.copyOf(size)
+        quiet = quiet.copyOf(size)
+        kinds = kinds.copyOf(size)
+        doubles = doubles.copyOf(size)
+        longs = longs.copyOf(size)
+        objects = objects.copyOf(size)
+        rendered = rendered.copyOf(size)
+    }
+
+    companion object {
+        const val OBJECT: Byte = 0
+        const val DOUBLE: Byte = 1
+        const val LONG: Byte = 2
+        const val INT: Byte = 3
+        const val BOOLEAN: Byte = 4
+        const val LAZY: Byte = 5
+
+        private const val INITIAL_SLOTS = 16
+    }
+}
@@ -0,0 +1,242 @@
+package teamcode.telemetry
+
+import com.qualcomm.robotcore.util.RobotLog
+import org.firstinspires.ftc.robotcore.internal.system.AppUtil
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileWriter
+import java.lang.ref.WeakReference
+import java.util.concurrent.CopyOnWriteArrayList
+import kotlin.concurrent.Volatile
+
+/**
+ * Timeline tracing of robot threads, commands and hardware access.
+ *
+ * Instrumented code wraps work in trace(name, category) { }. Each thread records
+ * begin/end events into its own fixed-size ring buffer (single writer, no locks,
+ * no allocation), so the last few seconds of every thread are always available.
+ * dump() writes them as Chrome trace-event JSON to the robot's storage - open it
+ * in https://ui.perfetto.dev or chrome://tracing to see which thread, command or
+ * hardware call a late cycle spent its time in.
+ *
+ * When tracing is disabled each trace point costs one branch on [enabled].
+ *
+ * Usage:
+ * ```
+ * Tracer.trace("Spindexer PID", Tracer.SUBSYSTEM) {
+ *     updatePid()
+ * }
+ * ```
+ */
+object Tracer {
+
+    /** Thread loop iterations */
+    const val THREAD = 0
+    /** Command initialize() */
+    const val COMMAND_INIT = 1
+    /** Command periodic() */
+    const val COMMAND_PERIODIC = 2
+    /** Command end() */
+    const val COMMAND_END = 3
+    /** RobotHardware reads */
+    const val HARDWARE_READ = 4
+    /** RobotHardware writes */
+    const val HARDWARE_WRITE = 5
+    /** Anything else instrumented by subsystem code */
+    const val SUBSYSTEM = 6
+
+    private val CATEGORY_NAMES = arrayOf(
+        "thread", "command.init", "command.periodic", "command.end",
+        "hardware.read", "hardware.write", "subsystem",
+    )
+
+    private const val TAG = "Tracer"
+
+    /** Events kept per thread; older events are overwritten. Power of two. */
+    const val EVENTS_PER_THREAD = 16384
+
+    private const val BEGIN = 0
+    private const val END = 1
+
+    /**
+     * Whether events are recorded. Can be flipped at any time from any thread.
+     */
+    @Volatile
+    @JvmField
+    var enabled: Boolean = false
+
+    private val buffers = CopyOnWriteArrayList<TraceBuffer>()
+
+    private val localBuffer = object : ThreadLocal<TraceBuffer>() {
+        override fun initialValue(): TraceBuffer {
+            val thread = Thread.currentThread()
+            val buffer = TraceBuffer(WeakReference(thread), thread.name, thread.id)
+            buffers.add(buffer)
+            return buffer
+        }
+    }
+
+    /**
+     * Record [block] as one span named [name] on the calling thread's timeline.
+     * [name] should be a constant or cached string, so tracing doesn't allocate.
+     */
+    inline fun <T> trace(name: String, category: Int, block: () -> T): T {
+        if (!enabled) return block()
+        begin(name, category)
+        try {
+            return block()
+        } finally {
+            end(name, category)
+        }
+    }
+
+    @PublishedApi
+    internal fun begin(name: String, category: Int) {
+        localBuffer.get()!!.record(name, (BEGIN shl 8) or category)
+    }
+
+    @PublishedApi
+    internal fun end(name: String, category: Int) {
+        localBuffer.get()!!.record(name, (END shl 8) or category)
+    }
+
+    /**
+     * Write every thread's buffered events to a new trace file, then drop the
+     * buffers of threads that have finished.
+     * Allocates and does file I/O - call from a non-control thread, or use dumpAsync().
+     * @return The file written
+     */
+    fun dump(): File {
+        val file = File(AppUtil.ROBOT_DATA_DIR, "trace-${System.currentTimeMillis()}.json")
+        BufferedWriter(FileWriter(file)).use { out ->
+            out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n")
+            var first = true
+            for (buffer in buffers) {
+                if (!first) out.write(",\n")
+                first = false
+                out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":${buffer.threadId},\"args\":{\"name\":")
+                writeString(out, buffer.threadName)
+                out.write("}}")
+                buffer.forEachEvent { name, kind, timeNanos ->
+                    out.write(",\n{\"name\":")
+                    writeString(out, name)
+                    out.write(",\"cat\":\"")
+                    out.write(CATEGORY_NAMES[kind and 0xFF])
+                    out.write(if (kind shr 8 == BEGIN) "\",\"ph\":\"B\"" else "\",\"ph\":\"E\"")
+                    out.write(",\"ts\":")
+                    out.write((timeNanos / 1000.0).toString())
+                    out.write(",\"pid\":1,\"tid\":${buffer.threadId}}")
+                }
+            }
+            out.write("\n]}\n")
+        }
+        dropFinishedThreads()
+        return file
+    }
+
+    /**
+     * dump() on a background thread, so it can be triggered from the OpMode loop.
+     */
+    fun dumpAsync() {
+        Thread({
+            try {
+                val file = dump()
+                RobotLog.ii(TAG, "Trace written to %s", file.absolutePath)
+            } catch (e: Exception) {
+                System.err.println("Error writing trace: ${e.message}")
+                e.printStackTrace()
+            }
+        }, "TraceDump").start()
+    }
+
+    /**
+     * Forget all buffered events and the buffers of finished threads.
+     * Only call while tracing is disabled.
+     */
+    fun clear() {
+        dropFinishedThreads()
+        for (buffer in buffers) {
+            buffer.clear()
+        }
+    }
+
+    /**
+     * Drop the buffers of threads that have terminated, e.g. those of an earlier OpMode.
+     * The app process outlives OpModes, so otherwise every run would leave its buffers behind.
+     * Safe to call at any time.
+     */
+    fun dropFinishedThreads() {
+        buffers.removeIf { !it.isAlive }
+    }
+
+    private fun writeString(out: BufferedWriter, value: String) {
+        out.write('"'.code)
+        for (c in value) {
+            when {
+                c == '"' -> out.write("\\\"")
+                c == '\\' -> out.write("\\\\")
+                c < ' ' -> out.write("\\u%04x".format(c.code))
+                else -> out.write(c.code)
+            }
+        }
+        out.write('"'.code)
+    }
+
+    /**
+     * One thread's ring of events. Written by its owner thread only; dump() reads
+     * it concurrently and drops anything overwritten while it was reading.
+     */
+    private class TraceBuffer(
+        private val thread: WeakReference<Thread>,
+        val threadName: String,
+        val threadId: Long
+    ) {
+        val isAlive: Boolean
+            get() = thread.get()?.isAlive == true
+
+        private val names = arrayOfNulls<String>(EVENTS_PER_THREAD)
+        private val kinds = IntArray(EVENTS_PER_THREAD)
+        private val times = LongArray(EVENTS_PER_THREAD)
+
+        /** Events ever written; published after each event's slots are filled */
+        @Volatile
+        private var head = 0L
+
+        fun record(name: String, kind: Int) {
+            val h = head
+            val i = (h and MASK).toInt()
+            names[i] = name
+            kinds[i] = kind
+            times[i] = System.nanoTime()
+            head = h + 1
+        }
+
+        fun clear() {
+            head = 0L
+        }
+
+        inline fun forEachEvent(action: (name: String, kind: Int, timeNanos: Long) -> Unit) {
+            val end = head
+            val start = maxOf(0L, end - EVENTS_PER_THREAD)
+            val count = (end - start).toInt()
+            val copiedNames = arrayOfNulls<String>(count)
+            val copiedKinds = IntArray(count)
+            val copiedTimes = LongArray(count)
+            for (n in 0 until count) {
+                val i = ((start + n) and MASK).toInt()
+                copiedNames[n] = names[i]
+                copiedKinds[n] = kinds[i]
+                copiedTimes[n] = times[i]
+            }
+            // The owner kept writing while we copied; skip slots it may have overwritten
+            val overwritten = (head - EVENTS_PER_THREAD - start).coerceIn(0L, count.toLong()).toInt()
+            for (n in overwritten until count) {
+                action(copiedNames[n] ?: continue, copiedKinds[n], copiedTimes[n])
+            }
+        }
+
+        companion object {
+            private const val MASK = (EVENTS_PER_THREAD - 1).toLong()
+        }
+    }
+}
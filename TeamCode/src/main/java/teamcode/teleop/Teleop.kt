@@ -2,7 +2,7 @@ package teamcode.teleop
 
 import com.qualcomm.robotcore.eventloop.opmode.TeleOp
 import teamcode.robot.core.Alliance
-import teamcode.robot.core.RobotHardware
+import teamcode.robot.core.RobotOutputs
 import teamcode.robot.core.state.RobotState
 import teamcode.robot.core.state.RobotStateMachine
 import teamcode.robot.subsystems.ColorSensorSubsystem
@@ -15,8 +15,10 @@ import teamcode.robot.subsystems.SpindexerSubsystem
 import teamcode.robot.subsystems.TurretState
 import teamcode.robot.subsystems.TurretSubsystem
 import teamcode.robot.subsystems.VisionSubsystem
+import teamcode.telemetry.Tracer
 import teamcode.threading.ThreadedOpMode
 import teamcode.commands.ShootAndTurn
+import teamcode.commands.ShootVolley
 import teamcode.commands.TriggerKicker
 import teamcode.commands.SpindexerSpin
 import teamcode.robot.command.execute
@@ -41,6 +43,11 @@ class Teleop : ThreadedOpMode() {
     private lateinit var intakeSubsystem: IntakeSubsystem
     private lateinit var colorSensorSubsystem: ColorSensorSubsystem
 
+    // Driver actions, built once and rescheduled on each press
+    private val triggerKicker by reusable { TriggerKicker() }
+    private val shootAndTurn by reusable { ShootAndTurn() }
+    private val shootVolley by reusable { ShootVolley() }
+    private val spindexerSpin by reusable { SpindexerSpin(1) }
     
     override fun initOpMode() {
         // Initialize subsystems
@@ -77,10 +84,13 @@ class Teleop : ThreadedOpMode() {
                 }
                 // Schedule shoot command when B button is pressed
                 if (gamepad2Ex.b.wasPressed()){
-                    TriggerKicker().execute()
+                    triggerKicker.execute()
                 }
                 if (gamepad2Ex.dpadUp.wasPressed()){
-                    ShootAndTurn().execute()
+                    shootAndTurn.execute()
+                }
+                if (gamepad2Ex.dpadDown.wasPressed()){
+                    shootVolley.execute()
                 }
             }
             RobotState.INTAKING -> {
@@ -92,7 +102,7 @@ class Teleop : ThreadedOpMode() {
 
         // Spindexer control - schedule cycle command when A button is pressed
         if (gamepad2Ex.a.wasPressed()){
-            SpindexerSpin(1).execute()
+            spindexerSpin.execute()
         }
 
 //        // Turret control - execute manual turret commands based on bumper input
@@ -111,15 +121,34 @@ class Teleop : ThreadedOpMode() {
 
 
         if(gamepad2Ex.dpadLeft.wasPressed()) {
-            RobotHardware.turretTurnServo.set(RobotHardware.turretTurnServo.get()+0.1)
+            RobotOutputs.turretTurnServo.set(RobotOutputs.turretTurnServo.get()+0.1)
         }
         if(gamepad2Ex.dpadRight.wasPressed()) {
-            RobotHardware.turretTurnServo.set(RobotHardware.turretTurnServo.get()-0.1)
+            RobotOutputs.turretTurnServo.set(RobotOutputs.turretTurnServo.get()-0.1)
+        }
+        // Reset loop timing histograms to compare match phases
+        if (gamepad1Ex.back.wasPressed()) {
+            resetLoopTiming()
+        }
+        // Toggle immediate scheduler wake-up to compare schedule latency
+        if (gamepad1Ex.start.wasPressed()) {
+            commandScheduler.wakeOnSchedule = !commandScheduler.wakeOnSchedule
+            commandScheduler.scheduleLatency.reset()
         }
+        // Timeline tracing: X starts/stops recording, Y writes the trace file
+        if (gamepad1Ex.x.wasPressed()) {
+            if (!Tracer.enabled) Tracer.clear()
+            Tracer.enabled = !Tracer.enabled
+        }
+        if (gamepad1Ex.y.wasPressed()) {
+            Tracer.dumpAsync()
+        }
+
         // ===== TELEMETRY =====
-        robotTelemetry.addData("Servo",RobotHardware.turretTurnServo.get())
+        robotTelemetry.addData("Servo",RobotOutputs.turretTurnServo.get())
         robotTelemetry.addData("Robot State", getState().name)
         robotTelemetry.addData("Runtime", runtime.seconds())
+        robotTelemetry.addData("Tracing", Tracer.enabled)
     }
     
     override fun cleanup() {
@@ -0,0 +1,16 @@
+package teamcode.threading
+
+/**
+ * How ThreadManager runs the threads it manages.
+ */
+enum class ExecutionMode {
+    /** Every RobotThread runs on its own OS thread (default). */
+    THREAD_PER_SUBSYSTEM,
+
+    /**
+     * Subsystems run cooperatively on one MultiRateExecutive thread (or a small pool),
+     * grouped by rate in a fixed order. Threads that can't run cooperatively,
+     * such as CommandScheduler, keep their own OS thread.
+     */
+    COOPERATIVE,
+}
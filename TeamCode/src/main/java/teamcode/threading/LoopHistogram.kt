@@ -0,0 +1,118 @@
+package teamcode.threading
+
+import java.util.Locale
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import kotlin.math.ceil
+
+/**
+ * Fixed-bucket, lock-free latency histogram.
+ *
+ * Values are recorded in nanoseconds and bucketed in microseconds on a log-linear
+ * scale: 1 µs buckets below 16 µs, then 8 buckets per power of two (about 12%
+ * resolution) up to roughly 16 seconds. Anything larger lands in the last bucket.
+ *
+ * record() never allocates, so it is safe on a control loop hot path. Recording is
+ * meant to come from one thread; reading and reset() can happen from any thread.
+ */
+class LoopHistogram {
+    private val counts = AtomicLongArray(BUCKET_COUNT)
+    private val total = AtomicLong()
+    private val maxMicros = AtomicLong()
+
+    /**
+     * Record one sample.
+     * @param nanos The sample in nanoseconds. Negative values are recorded as 0.
+     */
+    fun record(nanos: Long) {
+        val micros = if (nanos > 0) nanos / 1000 else 0
+        counts.incrementAndGet(bucketOf(micros))
+        total.incrementAndGet()
+        if (micros > maxMicros.get()) maxMicros.set(micros)
+    }
+
+    /**
+     * Number of samples recorded since the last reset.
+     */
+    val count: Long
+        get() = total.get()
+
+    /**
+     * Largest sample recorded since the last reset, in microseconds.
+     */
+    val max: Long
+        get() = maxMicros.get()
+
+    /**
+     * Get a percentile of the recorded samples.
+     * @param percentile Percentile between 0 and 100
+     * @return Upper edge of the bucket holding that percentile in microseconds, or 0 if empty
+     */
+    fun percentile(percentile: Double): Long {
+        val samples = total.get()
+        if (samples == 0L) return 0
+
+        val rank = ceil(samples * percentile.coerceIn(0.0, 100.0) / 100.0).toLong().coerceAtLeast(1)
+        var seen = 0L
+        for (i in 0 until BUCKET_COUNT) {
+            seen += counts.get(i)
+            if (seen >= rank) return minOf(upperBound(i), maxMicros.get())
+        }
+        return maxMicros.get()
+    }
+
+    /**
+     * Format p50/p95/p99/max in milliseconds for telemetry. Allocates, so cache the result.
+     */
+    fun summary(): String {
+        if (total.get() == 0L) return EMPTY_SUMMARY
+        return String.format(
+            Locale.US,
+            "p50 %.2f p95 %.2f p99 %.2f max %.2f",
+            percentile(50.0) / 1000.0,
+            percentile(95.0) / 1000.0,
+            percentile(99.0) / 1000.0,
+            max / 1000.0
+        )
+    }
+
+    /**
+     * Clear all recorded samples.
+     */
+    fun reset() {
+        for (i in 0 until BUCKET_COUNT) {
+            counts.set(i, 0)
+        }
+        total.set(0)
+        maxMicros.set(0)
+    }
+
+    companion object {
+        private const val LINEAR_BUCKETS = 16
+        private const val SUB_BUCKET_BITS = 3
+        private const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+        private const val MAX_EXPONENT = 23
+
+        /** summary() of an empty histogram. */
+        const val EMPTY_SUMMARY = "no samples"
+
+        /** Total number of buckets. */
+        const val BUCKET_COUNT = LINEAR_BUCKETS + (MAX_EXPONENT - 3) * SUB_BUCKETS
+
+        private fun bucketOf(micros: Long): Int {
+            if (micros < LINEAR_BUCKETS) return micros.toInt()
+            val exponent = 63 - java.lang.Long.numberOfLeadingZeros(micros)
+            if (exponent > MAX_EXPONENT) return BUCKET_COUNT - 1
+            val sub = ((micros shr (exponent - SUB_BUCKET_BITS)) and (SUB_BUCKETS - 1).toLong()).toInt()
+            return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + sub
+        }
+
+        private fun upperBound(bucket: Int): Long {
+            if (bucket < LINEAR_BUCKETS) return bucket.toLong()
+            val exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4
+            val sub = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS
+            val width = 1L shl (exponent - SUB_BUCKET_BITS)
+            return (SUB_BUCKETS + sub) * width + width - 1
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package teamcode.threading
+
+/**
+ * How a RobotThread paces its loop between iterations.
+ */
+enum class LoopMode {
+    /** Sleep updateIntervalMs after every runLoop(). The period grows with the work done. */
+    FIXED_DELAY,
+
+    /** Schedule every iteration against an absolute System.nanoTime() deadline. */
+    FIXED_RATE,
+}
+
+/**
+ * What a FIXED_RATE loop does when an iteration finishes after its next deadline.
+ */
+enum class OverrunPolicy {
+    /** Drop the missed ticks and wait for the next deadline on the original grid. */
+    SKIP,
+
+    /** Run the next iteration right away and re-anchor the grid on that moment. */
+    RUN_IMMEDIATELY,
+
+    /** Run missed ticks back-to-back, up to RobotThread.maxCatchUpTicks of them. */
+    CATCH_UP,
+}
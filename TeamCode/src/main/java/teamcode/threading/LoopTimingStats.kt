@@ -0,0 +1,89 @@
+package teamcode.threading
+
+import teamcode.telemetry.LazyChannel
+import teamcode.telemetry.LongChannel
+import teamcode.telemetry.TelemetryWriter
+import kotlin.concurrent.Volatile
+
+/**
+ * Loop timing for one RobotThread.
+ *
+ * Tracks three histograms per thread:
+ * - Period: start of one iteration to the start of the next
+ * - Work: how long runLoop() took
+ * - Lateness: how late the thread woke up compared to when it asked to
+ *
+ * Recording never allocates. Summary strings for telemetry are lazy channels,
+ * built by the telemetry publisher only when it sends them. All of it changes every
+ * iteration, so it is published quiet.
+ */
+class LoopTimingStats {
+    val period = LoopHistogram()
+    val work = LoopHistogram()
+    val lateness = LoopHistogram()
+
+    /**
+     * Number of iterations since the last reset.
+     */
+    @Volatile
+    var iterations: Long = 0
+        private set
+
+    private var lastStartNanos = 0L
+
+    @Volatile
+    private var resetRequested = false
+
+    private val iterationsChannel = LongChannel("Loop Iterations", quiet = true)
+    private val periodChannel = LazyChannel("Loop Period (ms)", quiet = true) { period.summary() }
+    private val workChannel = LazyChannel("Loop Work (ms)", quiet = true) { work.summary() }
+    private val latenessChannel = LazyChannel("Loop Lateness (ms)", quiet = true) { lateness.summary() }
+
+    /**
+     * Record the start of an iteration.
+     * @param startNanos System.nanoTime() at the start of the iteration
+     * @param wakeDeadlineNanos When the thread asked to wake up for this iteration
+     */
+    fun recordStart(startNanos: Long, wakeDeadlineNanos: Long) {
+        if (resetRequested) {
+            resetRequested = false
+            period.reset()
+            work.reset()
+            lateness.reset()
+            iterations = 0
+            lastStartNanos = 0
+        }
+
+        if (lastStartNanos != 0L) {
+            period.record(startNanos - lastStartNanos)
+            lateness.record(startNanos - wakeDeadlineNanos)
+        }
+        lastStartNanos = startNanos
+        iterations++
+    }
+
+    /**
+     * Record how long the work of an iteration took.
+     */
+    fun recordWork(workNanos: Long) {
+        work.record(workNanos)
+    }
+
+    /**
+     * Reset all histograms. Safe to call from any thread; the owning thread
+     * applies it at the start of its next iteration.
+     */
+    fun reset() {
+        resetRequested = true
+    }
+
+    /**
+     * Add p50/p95/p99/max and the iteration counter to the current telemetry namespace.
+     */
+    fun publish(telemetry: TelemetryWriter) {
+        telemetry.addData(iterationsChannel, iterations)
+        telemetry.addData(periodChannel)
+        telemetry.addData(workChannel)
+        telemetry.addData(latenessChannel)
+    }
+}
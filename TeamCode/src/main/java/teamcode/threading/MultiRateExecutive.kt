@@ -0,0 +1,167 @@
+package teamcode.threading
+
+import teamcode.telemetry.RobotTelemetry
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.LockSupport
+import kotlin.concurrent.Volatile
+
+/**
+ * Runs several RobotThreads cooperatively on a single OS thread.
+ *
+ * Instead of one thread per subsystem, the executive keeps each task's own
+ * schedule (updateIntervalMs, loopMode and overrun policy still apply) and runs
+ * every task that is due in a fixed order: fastest rate first, then registration
+ * order. With rates of 5/10/20/100 ms the tasks line up on a common 5 ms grid,
+ * so each cycle runs the same tasks in the same order every time.
+ *
+ * Tasks must not block in runLoop(), since a blocked task delays every task after it.
+ *
+ * Used by ThreadManager when executionMode is ExecutionMode.COOPERATIVE.
+ */
+class MultiRateExecutive(
+    name: String,
+    tasks: List<RobotThread>,
+    robotTelemetry: RobotTelemetry
+) : Thread(name) {
+
+    private val telemetry = robotTelemetry.writer(name)
+
+    /** Tasks in execution order. */
+    private val tasks: Array<RobotThread> = tasks
+        .withIndex()
+        .sortedWith(compareBy({ it.value.updateIntervalMs }, { it.index }))
+        .map { it.value }
+        .toTypedArray()
+
+    @Volatile
+    var isRunning: Boolean = false
+        private set
+
+    /**
+     * Timing of the executive's own cycle (all tasks due at one moment).
+     */
+    val loopTiming = LoopTimingStats()
+
+    /**
+     * Set when a task is woken (RobotThread.wake()); cleared when the next cycle starts.
+     */
+    @Volatile
+    private var wakeRequested: Boolean = false
+
+    /**
+     * Attach all tasks before the thread starts so they are registered as globals
+     * before any of their init() methods run.
+     */
+    @Synchronized
+    override fun start() {
+        if (isRunning) return
+        for (task in tasks) {
+            task.attachCooperative(this)
+        }
+        isRunning = true
+        super.start()
+    }
+
+    override fun run() {
+        try {
+            for (task in tasks) {
+                try {
+                    task.startCooperative()
+                } catch (t: Throwable) {
+                    t.printStackTrace()
+                }
+            }
+
+            var wakeDeadline = System.nanoTime()
+            while (isRunning && !isInterrupted) {
+                wakeRequested = false
+                val cycleStart = System.nanoTime()
+                loopTiming.recordStart(cycleStart, wakeDeadline)
+
+                // Run every due or woken task in fixed order
+                for (task in tasks) {
+                    task.runCooperativeIteration(cycleStart)
+                }
+                loopTiming.recordWork(System.nanoTime() - cycleStart)
+                publishTelemetry()
+
+                wakeDeadline = nextDeadline()
+                if (!sleepUntil(wakeDeadline)) break
+                if (wakeRequested) wakeDeadline = System.nanoTime()
+            }
+        } finally {
+            for (task in tasks) {
+                try {
+                    task.detachCooperative()
+                } catch (t: Throwable) {
+                    t.printStackTrace()
+                }
+            }
+        }
+    }
+
+    /**
+     * Earliest deadline across all tasks.
+     */
+    private fun nextDeadline(): Long {
+        var next = System.nanoTime() + MAX_IDLE_NANOS
+        for (task in tasks) {
+            if (task.cooperativeDeadline - next < 0) next = task.cooperativeDeadline
+        }
+        return next
+    }
+
+    /**
+     * Park until [deadlineNanos] or until a task is woken.
+     * @return false if interrupted
+     */
+    private fun sleepUntil(deadlineNanos: Long): Boolean {
+        while (!wakeRequested) {
+            val remaining = deadlineNanos - System.nanoTime()
+            if (remaining <= 0) return true
+            LockSupport.parkNanos(this, remaining)
+            if (isInterrupted) return false
+        }
+        return true
+    }
+
+    /**
+     * Start the next cycle now. Called by RobotThread.wake() for tasks run by this executive.
+     */
+    internal fun wake() {
+        wakeRequested = true
+        LockSupport.unpark(this)
+    }
+
+    private fun publishTelemetry() {
+        telemetry.begin()
+        telemetry.addData("Tasks", tasks.size)
+        loopTiming.publish(telemetry)
+        telemetry.commit()
+    }
+
+    /**
+     * Stop the executive and wait for it to detach its tasks.
+     */
+    fun shutdown() {
+        isRunning = false
+        interrupt()
+        try {
+            join()
+        } catch (e: InterruptedException) {
+            currentThread().interrupt()
+        }
+    }
+
+    /**
+     * Reset the executive's own timing stats.
+     */
+    fun resetLoopStats() {
+        loopTiming.reset()
+    }
+
+    companion object {
+        /** Upper bound on how long the executive sleeps if no task is due. */
+        private val MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100)
+    }
+}
@@ -2,8 +2,14 @@ package teamcode.threading
 
 import com.qualcomm.robotcore.util.ElapsedTime
 import teamcode.robot.control.GamepadEx
+import teamcode.telemetry.DoubleChannel
+import teamcode.telemetry.LongChannel
 import teamcode.telemetry.RobotTelemetry
-import java.util.concurrent.ConcurrentHashMap
+import teamcode.telemetry.TelemetryWriter
+import teamcode.telemetry.Tracer
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.LockSupport
 import kotlin.concurrent.Volatile
 
 /**
@@ -36,7 +42,17 @@ abstract class RobotThread : Thread {
         protected set
     protected var runtime: ElapsedTime? = null
     protected val lock: Any = Any()
-    lateinit var telemetry: RobotTelemetry
+    /**
+     * This thread's telemetry namespace. Set by attachTelemetry().
+     */
+    lateinit var telemetry: TelemetryWriter
+        private set
+
+    /**
+     * The OpMode's telemetry, for anything beyond this thread's own namespace.
+     */
+    lateinit var robotTelemetry: RobotTelemetry
+        private set
 
 
     @get:JvmName("getTelemetryOrThrow")
@@ -80,12 +96,93 @@ abstract class RobotThread : Thread {
      */
     var updateIntervalMs: Long = 20 // Default 20ms update rate (50Hz)
 
+    /**
+     * How the loop is paced. FIXED_DELAY (default) sleeps updateIntervalMs after every
+     * runLoop(); FIXED_RATE runs every updateIntervalMs regardless of how long the work took.
+     */
+    @Volatile
+    var loopMode: LoopMode = LoopMode.FIXED_DELAY
+
+    /**
+     * What a FIXED_RATE loop does when an iteration overruns its next deadline.
+     */
+    @Volatile
+    var overrunPolicy: OverrunPolicy = OverrunPolicy.SKIP
+
+    /**
+     * Maximum number of missed ticks run back-to-back under OverrunPolicy.CATCH_UP.
+     */
+    @Volatile
+    var maxCatchUpTicks: Int = 2
+
+    /**
+     * Number of FIXED_RATE iterations that finished after their next deadline.
+     */
+    @Volatile
+    var overrunCount: Long = 0
+        private set
+
+    /**
+     * Worst lateness of an iteration start against its FIXED_RATE deadline, in nanoseconds.
+     */
+    @Volatile
+    var worstLatenessNanos: Long = 0
+        private set
+
+    /** Set by resetLoopStats(), applied by the thread running this loop */
+    @Volatile
+    private var loopStatsResetRequested = false
+
+    private val overrunsChannel = LongChannel("Loop Overruns", quiet = true)
+    private val worstLatenessChannel = DoubleChannel("Loop Worst Lateness (ms)", quiet = true)
+
+    /**
+     * Period, work and lateness histograms for this thread's loop.
+     */
+    val loopTiming = LoopTimingStats()
+
+    /**
+     * Set by wake() and cleared when the next iteration starts.
+     */
+    @Volatile
+    private var wakeRequested: Boolean = false
+
+    /**
+     * Threads woken by publish(). Copy-on-write, since it's read on every publish.
+     */
+    @Volatile
+    private var consumers: Array<RobotThread> = emptyArray()
+
+    /**
+     * Incremented by every publish(). Consumers compare it with the value they
+     * last processed to tell new data from a timer tick.
+     */
+    @Volatile
+    var publishSequence: Long = 0
+        private set
+
+    /**
+     * True while runLoop() runs because of wake() rather than a timer tick.
+     * Lets a loop do only the event-driven part of its work on wake-ups.
+     */
+    protected var isWakeIteration: Boolean = false
+        private set
+
     constructor(name: String) : super(name)
 
     constructor(name: String, updateIntervalMs: Long) : super(name) {
         this.updateIntervalMs = updateIntervalMs
     }
 
+    /**
+     * Give this thread its telemetry namespace (its name) in [root].
+     * Called by ThreadedOpMode before threads start.
+     */
+    fun attachTelemetry(root: RobotTelemetry) {
+        robotTelemetry = root
+        telemetry = root.writer(name)
+    }
+
     /**
      * Initialize the thread - called before start()
      */
@@ -102,36 +199,40 @@ abstract class RobotThread : Thread {
 
         registerAsGlobal()
 
-        telemetry.namespace = name
+        robotTelemetry.namespace = name
 
         onStart()
 
         try {
+            var deadline = System.nanoTime()
+
             while (this.isRunning && !isInterrupted()) {
                 synchronized(lock) {
-                    while (this.isPaused && this.isRunning) {
-                        try {
-                            (lock as Object).wait()
-                        } catch (e: InterruptedException) {
-                            currentThread().interrupt()
-                            return
+                    if (this.isPaused && this.isRunning) {
+                        while (this.isPaused && this.isRunning) {
+                            try {
+                                (lock as Object).wait()
+                            } catch (e: InterruptedException) {
+                                currentThread().interrupt()
+                                return
+                            }
                         }
+                        // Re-anchor so time spent paused is not counted as an overrun
+                        deadline = System.nanoTime()
                     }
                 }
 
                 if (!this.isRunning) break
 
-                telemetry.beginStaging()
-                try {
-                    runLoop()
-                    telemetry.commitStaging()
-                } catch (t: Throwable) {
-                    telemetry.discardStaging()
-                    handleException(t)
-                }
+                runIteration(deadline)
 
                 try {
-                    sleep(updateIntervalMs)
+                    deadline = nextDeadline(deadline)
+                    // A producer's publish() wakes us early: run for the new data
+                    // without moving the timer schedule
+                    while (sleepUntil(deadline) && this.isRunning && !this.isPaused) {
+                        runIteration(System.nanoTime(), woken = true)
+                    }
                 } catch (e: InterruptedException) {
                     currentThread().interrupt()
                     return
@@ -147,6 +248,231 @@ abstract class RobotThread : Thread {
         }
     }
 
+    /**
+     * Run one loop iteration: timing, telemetry staging, runLoop() and exception handling.
+     * @param wakeDeadline When this iteration was scheduled to start (System.nanoTime())
+     * @param woken Whether this iteration runs because of wake() instead of a timer tick
+     */
+    private fun runIteration(wakeDeadline: Long, woken: Boolean = false) {
+        wakeRequested = false
+        isWakeIteration = woken
+        val iterationStart = System.nanoTime()
+        loopTiming.recordStart(iterationStart, wakeDeadline)
+        if (loopStatsResetRequested) {
+            loopStatsResetRequested = false
+            overrunCount = 0
+            worstLatenessNanos = 0
+        }
+        if (loopMode == LoopMode.FIXED_RATE) {
+            val lateness = iterationStart - wakeDeadline
+            if (lateness > worstLatenessNanos) worstLatenessNanos = lateness
+        }
+
+        Tracer.trace(name, Tracer.THREAD) {
+            telemetry.begin()
+            try {
+                runLoop()
+                loopTiming.recordWork(System.nanoTime() - iterationStart)
+                publishLoopStats()
+                telemetry.commit()
+            } catch (t: Throwable) {
+                telemetry.discard()
+                handleException(t)
+            }
+        }
+    }
+
+    /**
+     * Compute when the iteration after the one scheduled at [deadline] should start.
+     */
+    private fun nextDeadline(deadline: Long): Long {
+        return if (loopMode == LoopMode.FIXED_RATE) {
+            nextFixedRateDeadline(deadline)
+        } else {
+            System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(updateIntervalMs)
+        }
+    }
+
+    /**
+     * Whether this thread's loop can be run by a MultiRateExecutive instead of its own OS thread.
+     * Only threads whose runLoop() never blocks for long should return true.
+     */
+    internal open val canRunCooperatively: Boolean
+        get() = false
+
+    /**
+     * Next scheduled iteration when run by a MultiRateExecutive (System.nanoTime()).
+     */
+    internal var cooperativeDeadline: Long = 0L
+
+    /**
+     * The executive running this thread's loop, or null if it runs on its own thread.
+     */
+    @Volatile
+    private var executive: MultiRateExecutive? = null
+
+    /**
+     * Prepare to be run by a MultiRateExecutive: mark running and register as global.
+     * onStart() is called separately by startCooperative() once every task is attached,
+     * so init() code that waits on another subsystem can find it.
+     */
+    internal fun attachCooperative(executive: MultiRateExecutive) {
+        this.executive = executive
+        initialize()
+        this.isRunning = true
+        runtime!!.reset()
+        registerAsGlobal()
+    }
+
+    /**
+     * Call onStart() on the executive thread.
+     */
+    internal fun startCooperative() {
+        robotTelemetry.namespace = name
+        onStart()
+        cooperativeDeadline = System.nanoTime()
+    }
+
+    /**
+     * Run one iteration on the executive thread if this task is due or was woken.
+     * Woken iterations don't move the schedule. Paused tasks are skipped and
+     * re-anchored so they resume on a fresh schedule.
+     * @param cycleStart When the executive cycle started (System.nanoTime())
+     */
+    internal fun runCooperativeIteration(cycleStart: Long) {
+        if (this.isPaused) {
+            cooperativeDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(updateIntervalMs)
+            return
+        }
+        val due = cooperativeDeadline - cycleStart <= 0
+        if (!due && !wakeRequested) return
+
+        if (due) {
+            val deadline = cooperativeDeadline
+            runIteration(deadline)
+            cooperativeDeadline = nextDeadline(deadline)
+        } else {
+            runIteration(cycleStart, woken = true)
+        }
+    }
+
+    /**
+     * Stop being run by a MultiRateExecutive: call onStop() and unregister.
+     */
+    internal fun detachCooperative() {
+        this.isRunning = false
+        try {
+            onStop()
+        } finally {
+            unregisterGlobal()
+            executive = null
+        }
+    }
+
+    /**
+     * Run the next iteration now instead of waiting for the next timer tick.
+     * Safe to call from any thread; wakes that arrive before the iteration starts are merged.
+     */
+    fun wake() {
+        wakeRequested = true
+        val executive = this.executive
+        if (executive != null) {
+            executive.wake()
+        } else {
+            LockSupport.unpark(this)
+        }
+    }
+
+    /**
+     * Wake [consumer] whenever this thread calls publish().
+     */
+    fun addConsumer(consumer: RobotThread) {
+        synchronized(lock) {
+            if (consumers.any { it === consumer }) return
+            consumers = consumers + consumer
+        }
+    }
+
+    /**
+     * Stop waking [consumer] on publish().
+     */
+    fun removeConsumer(consumer: RobotThread) {
+        synchronized(lock) {
+            consumers = consumers.filter { it !== consumer }.toTypedArray()
+        }
+    }
+
+    /**
+     * Announce new data: bump publishSequence and wake every consumer.
+     * Call after the new data is visible (written to volatile fields).
+     */
+    protected fun publish() {
+        publishSequence++
+        for (consumer in consumers) {
+            consumer.wake()
+        }
+    }
+
+    /**
+     * Compute the deadline that follows [deadline] on the FIXED_RATE grid,
+     * applying the overrun policy if the current iteration ran past it.
+     */
+    private fun nextFixedRateDeadline(deadline: Long): Long {
+        val period = TimeUnit.MILLISECONDS.toNanos(updateIntervalMs).coerceAtLeast(1)
+        val next = deadline + period
+        val now = System.nanoTime()
+        if (now <= next) return next
+
+        overrunCount++
+        // Ticks whose deadline has already passed, including next
+        val missed = (now - next) / period + 1
+
+        return when (overrunPolicy) {
+            OverrunPolicy.SKIP -> next + missed * period
+            OverrunPolicy.RUN_IMMEDIATELY -> now
+            OverrunPolicy.CATCH_UP -> {
+                val limit = maxCatchUpTicks.coerceAtLeast(0).toLong()
+                if (missed <= limit) next else next + (missed - limit) * period
+            }
+        }
+    }
+
+    /**
+     * Sleep until the absolute System.nanoTime() [deadlineNanos] or until wake() is called.
+     * Returns immediately if the deadline has passed.
+     * @return true if woken before the deadline
+     */
+    @Throws(InterruptedException::class)
+    private fun sleepUntil(deadlineNanos: Long): Boolean {
+        while (true) {
+            if (wakeRequested) return true
+            val remaining = deadlineNanos - System.nanoTime()
+            if (remaining <= 0) return false
+            LockSupport.parkNanos(this, remaining)
+            if (interrupted()) throw InterruptedException()
+        }
+    }
+
+    /**
+     * Add loop scheduling stats to this thread's telemetry namespace.
+     */
+    private fun publishLoopStats() {
+        loopTiming.publish(telemetry)
+        if (loopMode != LoopMode.FIXED_RATE) return
+        telemetry.addData(overrunsChannel, overrunCount)
+        telemetry.addData(worstLatenessChannel, worstLatenessNanos / 1e6)
+    }
+
+    /**
+     * Reset loop timing histograms, overrun count and worst lateness, e.g. between match phases.
+     * Safe from any thread; applied at the start of the loop's next iteration, like
+     * LoopTimingStats.reset(), so it can't race the loop's own updates.
+     */
+    fun resetLoopStats() {
+        loopTiming.reset()
+        loopStatsResetRequested = true
+    }
+
     /**
      * Override this method to implement the main logic of the thread
      */
@@ -223,8 +549,6 @@ abstract class RobotThread : Thread {
      * @param value The telemetry value
      */
     protected fun addTelemetry(key: String, value: Any) {
-            // Ensure namespace is set for this thread
-        telemetry.namespace = getName()
         telemetry.addData(key, value)
     }
 
@@ -235,29 +559,67 @@ abstract class RobotThread : Thread {
      * @param args Format arguments
      */
     protected fun addTelemetry(key: String, format: String, vararg args: Any) {
-        // Ensure namespace is set for this thread
-        telemetry.namespace = getName()
         telemetry.addData(key, format, *args)
-
     }
 
     /**
      * Clear all telemetry data for this thread.
      */
     protected fun clearTelemetry() {
-        telemetry.clearNamespace(getName())
-
+        telemetry.clear()
     }
 
     companion object {
-        // Automatically tracks ONE instance per subclass
-        private val globals = ConcurrentHashMap<Class<out RobotThread>, RobotThread>()
+        /**
+         * Registry entry for one RobotThread class.
+         * Waiters block on [latch], which register() counts down.
+         */
+        private class Slot(val type: Class<out RobotThread>) {
+            @Volatile
+            var instance: RobotThread? = null
+
+            @Volatile
+            var latch: CountDownLatch = CountDownLatch(1)
+        }
+
+        // Automatically tracks ONE instance per subclass.
+        // Copy-on-write: lookups scan this array without locking, slots are only ever added.
+        @Volatile
+        private var slots: Array<Slot> = emptyArray()
+        private val slotsLock = Any()
+
+        /**
+         * Find the slot for [type], comparing classes by identity.
+         */
+        private fun findSlot(type: Class<*>): Slot? {
+            val current = slots
+            for (slot in current) {
+                if (slot.type === type) return slot
+            }
+            return null
+        }
+
+        /**
+         * Find or create the slot for [type]. Only the first call per class takes the lock.
+         */
+        private fun slotFor(type: Class<out RobotThread>): Slot {
+            findSlot(type)?.let { return it }
+            synchronized(slotsLock) {
+                findSlot(type)?.let { return it }
+                val slot = Slot(type)
+                slots = slots + slot
+                return slot
+            }
+        }
 
         /**
          * Get the current instance of a thread, waiting for it to become available if necessary.
          * Useful when threads start concurrently and one depends on another.
          * 
-         * @param pollIntervalMs Time between checks in milliseconds (default: 10ms)
+         * Waiting blocks on a per-class latch that register() releases, so it uses no CPU
+         * and returns as soon as the instance is registered.
+         * 
+         * @param pollIntervalMs Unused, kept for source compatibility
          * @param timeoutMs Maximum time to wait in milliseconds. If null, waits indefinitely (default: null)
          * @return The thread instance when it becomes available
          * @throws IllegalStateException if the thread doesn't become available within the timeout
@@ -269,9 +631,6 @@ abstract class RobotThread : Thread {
          * 
          * // Kotlin - wait with timeout
          * val vision = RobotThread.current<VisionSubsystem>(timeoutMs = 1000)
-         * 
-         * // Kotlin - custom poll interval
-         * val vision = RobotThread.current<VisionSubsystem>(pollIntervalMs = 5)
          * ```
          */
         @JvmStatic
@@ -284,7 +643,7 @@ abstract class RobotThread : Thread {
          * Get the current instance of a thread, waiting for it to become available if necessary (Java-compatible version).
          * 
          * @param type The class of the thread to get
-         * @param pollIntervalMs Time between checks in milliseconds (default: 10ms)
+         * @param pollIntervalMs Unused, kept for source compatibility
          * @param timeoutMs Maximum time to wait in milliseconds. If null, waits indefinitely (default: null)
          * @return The thread instance when it becomes available
          * @throws IllegalStateException if the thread doesn't become available within the timeout
@@ -296,9 +655,6 @@ abstract class RobotThread : Thread {
          * 
          * // Java - wait with timeout
          * VisionSubsystem vision = RobotThread.current(VisionSubsystem.class, 10L, 1000L);
-         * 
-         * // Java - wait indefinitely with custom poll
-         * VisionSubsystem vision = RobotThread.current(VisionSubsystem.class, 5L, null);
          * ```
          */
         @JvmStatic
@@ -307,63 +663,67 @@ abstract class RobotThread : Thread {
             pollIntervalMs: Long = 10,
             timeoutMs: Long? = null
         ): T {
-            if (timeoutMs == null) {
-                // Wait indefinitely
-                while (true) {
+            // Fast path: already registered, no locks
+            findSlot(type)?.instance?.let {
+                @Suppress("UNCHECKED_CAST")
+                return it as T
+            }
+
+            val slot = slotFor(type)
+            val deadline = timeoutMs?.let { System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(it) }
+
+            while (true) {
+                // Read the latch before the instance so a register() in between is never missed
+                val latch = slot.latch
+                slot.instance?.let {
                     @Suppress("UNCHECKED_CAST")
-                    val instance = globals[type] as? T
-                    if (instance != null) {
-                        return instance
-                    }
-                    
-                    try {
-                        Thread.sleep(pollIntervalMs)
-                    } catch (e: InterruptedException) {
-                        Thread.currentThread().interrupt()
-                        throw IllegalStateException("Interrupted while waiting for ${type.simpleName}", e)
-                    }
+                    return it as T
                 }
-            } else {
-                // Wait with timeout
-                val maxRetries = (timeoutMs / pollIntervalMs).toInt().coerceAtLeast(1)
-                var retries = maxRetries
-                
-                while (retries > 0) {
-                    @Suppress("UNCHECKED_CAST")
-                    val instance = globals[type] as? T
-                    if (instance != null) {
-                        return instance
-                    }
-                    
-                    retries--
-                    if (retries > 0) {
-                        try {
-                            Thread.sleep(pollIntervalMs)
-                        } catch (e: InterruptedException) {
-                            Thread.currentThread().interrupt()
-                            throw IllegalStateException("Interrupted while waiting for ${type.simpleName}", e)
+
+                try {
+                    if (deadline == null) {
+                        latch.await()
+                    } else {
+                        val remaining = deadline - System.nanoTime()
+                        if (remaining <= 0 || !latch.await(remaining, TimeUnit.NANOSECONDS)) {
+                            slot.instance?.let {
+                                @Suppress("UNCHECKED_CAST")
+                                return it as T
+                            }
+                            throw IllegalStateException(
+                                "${type.simpleName} did not become available within ${timeoutMs}ms"
+                            )
                         }
                     }
+                } catch (e: InterruptedException) {
+                    Thread.currentThread().interrupt()
+                    throw IllegalStateException("Interrupted while waiting for ${type.simpleName}", e)
                 }
-                
-                throw IllegalStateException(
-                    "${type.simpleName} did not become available within ${timeoutMs}ms"
-                )
             }
         }
 
         @JvmStatic
         internal fun register(instance: RobotThread) {
-            val prev = globals.putIfAbsent(instance.javaClass, instance)
-            require(prev == null || prev === instance) {
-                "Multiple ${instance.javaClass.simpleName} instances are not allowed"
+            val slot = slotFor(instance.javaClass)
+            synchronized(slot) {
+                val prev = slot.instance
+                require(prev == null || prev === instance) {
+                    "Multiple ${instance.javaClass.simpleName} instances are not allowed"
+                }
+                slot.instance = instance
+                slot.latch.countDown()
             }
         }
 
         @JvmStatic
         internal fun unregister(instance: RobotThread) {
-            globals.compute(instance.javaClass) { _, v -> if (v === instance) null else v }
+            val slot = findSlot(instance.javaClass) ?: return
+            synchronized(slot) {
+                if (slot.instance !== instance) return
+                // New latch first, so waiters that see the instance gone block until the next register()
+                slot.latch = CountDownLatch(1)
+                slot.instance = null
+            }
         }
     }
 }
-
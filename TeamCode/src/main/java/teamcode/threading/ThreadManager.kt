@@ -6,12 +6,28 @@ package teamcode.threading
 class ThreadManager {
     private val threads: MutableList<RobotThread>
 
+    /**
+     * Executives running cooperative threads (COOPERATIVE mode only)
+     */
+    private val executives: MutableList<MultiRateExecutive> = ArrayList()
+
     /**
      * Check if manager is running
      */
     var isRunning: Boolean = false
         private set
 
+    /**
+     * How threads are run. Must be set before startAll().
+     */
+    var executionMode: ExecutionMode = ExecutionMode.THREAD_PER_SUBSYSTEM
+
+    /**
+     * Number of executive threads used in COOPERATIVE mode.
+     * Tasks are spread across them to balance estimated load.
+     */
+    var executiveCount: Int = 1
+
     init {
         this.threads = ArrayList<RobotThread>()
     }
@@ -40,6 +56,11 @@ class ThreadManager {
     fun startAll() {
         synchronized(threads) {
             this.isRunning = true
+
+            if (executionMode == ExecutionMode.COOPERATIVE) {
+                startExecutives(threads.filter { it.canRunCooperatively && !it.isRunning })
+            }
+
             for (thread in threads) {
                 if (!thread.isRunning) {
                     thread.start()
@@ -48,12 +69,47 @@ class ThreadManager {
         }
     }
 
+    /**
+     * Spread cooperative tasks across executives, assigning each task (fastest rate first)
+     * to the executive with the lowest total rate so far.
+     */
+    private fun startExecutives(tasks: List<RobotThread>) {
+        if (tasks.isEmpty()) return
+
+        val count = executiveCount.coerceIn(1, tasks.size)
+        val groups = List(count) { ArrayList<RobotThread>() }
+        val load = DoubleArray(count)
+
+        for (task in tasks.sortedBy { it.updateIntervalMs }) {
+            var target = 0
+            for (i in 1 until count) {
+                if (load[i] < load[target]) target = i
+            }
+            groups[target].add(task)
+            load[target] += 1.0 / task.updateIntervalMs.coerceAtLeast(1)
+        }
+
+        for ((i, group) in groups.withIndex()) {
+            val name = if (count == 1) "Executive" else "Executive${i + 1}"
+            val executive = MultiRateExecutive(name, group, group[0].robotTelemetry)
+            executives.add(executive)
+            executive.start()
+        }
+    }
+
     /**
      * Stop all managed threads gracefully
      */
     fun stopAll() {
         synchronized(threads) {
             this.isRunning = false
+
+            // Executives stop their cooperative tasks themselves
+            for (executive in executives) {
+                executive.shutdown()
+            }
+            executives.clear()
+
             for (thread in threads) {
                 if (thread.isRunning) {
                     thread.stopThread()
@@ -93,6 +149,20 @@ class ThreadManager {
         }
     }
 
+    /**
+     * Reset loop timing stats of all managed threads
+     */
+    fun resetLoopStats() {
+        synchronized(threads) {
+            for (thread in threads) {
+                thread.resetLoopStats()
+            }
+            for (executive in executives) {
+                executive.resetLoopStats()
+            }
+        }
+    }
+
     /**
      * Get all managed threads
      */
@@ -4,12 +4,19 @@ import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode
 import com.qualcomm.robotcore.util.ElapsedTime
 import org.firstinspires.ftc.robotcore.external.Telemetry
 import com.qualcomm.robotcore.hardware.Gamepad
+import teamcode.robot.command.Command
 import teamcode.robot.command.CommandScheduler
 import teamcode.robot.control.GamepadEx
+import teamcode.robot.core.HardwareCycle
 import teamcode.robot.core.RobotHardware
+import teamcode.robot.core.RobotOutputs
 import teamcode.robot.core.state.RobotState
 import teamcode.robot.core.state.RobotStateMachine
+import teamcode.telemetry.DataLogger
+import teamcode.telemetry.LogConfig
 import teamcode.telemetry.RobotTelemetry
+import teamcode.telemetry.TelemetryPublisher
+import teamcode.telemetry.Tracer
 import teamcode.threading.RobotThread
 import kotlin.concurrent.Volatile
 import kotlin.lazy
@@ -20,6 +27,7 @@ import kotlin.lazy
  * 
  * Automatically includes command system integration:
  * - CommandSchedulerThread is created and managed automatically
+ * - HardwareCycle thread keeps RobotHardware.snapshot up to date and flushes RobotOutputs
  * - Access via getCommandScheduler() or CommandSystem utility
  */
 abstract class ThreadedOpMode : LinearOpMode() {
@@ -72,6 +80,39 @@ abstract class ThreadedOpMode : LinearOpMode() {
      * Use this in initOpMode() and other methods to create gamepad bindings.
      */
     protected val gamepad2Ex: GamepadEx by lazy { GamepadEx(super.gamepad2) }
+
+    /**
+     * How subsystems are run. Override to run them cooperatively on a MultiRateExecutive
+     * instead of one OS thread each. Subsystem code does not need to change.
+     */
+    protected open val executionMode: ExecutionMode
+        get() = ExecutionMode.THREAD_PER_SUBSYSTEM
+
+    /**
+     * Number of executive threads used when executionMode is COOPERATIVE.
+     */
+    protected open val executiveCount: Int
+        get() = 1
+
+    private val reusableCommands = mutableListOf<Lazy<Command>>()
+
+    /**
+     * Declare a command built once and scheduled again on every use, so button
+     * handling doesn't allocate or look up subsystems. Built right after the threads start,
+     * once current() can find the subsystems.
+     * Re-scheduling while it is still running does nothing.
+     *
+     * ```
+     * private val kick by reusable { TriggerKicker() }
+     * ...
+     * if (gamepad2Ex.b.wasPressed()) kick.execute()
+     * ```
+     */
+    protected fun <T : Command> reusable(factory: () -> T): Lazy<T> {
+        val command = lazy(factory)
+        reusableCommands.add(command)
+        return command
+    }
     
     companion object {
         /**
@@ -144,6 +185,8 @@ abstract class ThreadedOpMode : LinearOpMode() {
     override fun runOpMode() {
         runtime = ElapsedTime()
         threadManager = ThreadManager()
+        threadManager.executionMode = executionMode
+        threadManager.executiveCount = executiveCount
         
         // Initialize gamepads (lazy properties) before setting as global
         // Access them to trigger lazy initialization
@@ -163,9 +206,20 @@ abstract class ThreadedOpMode : LinearOpMode() {
         robotTelemetry = RobotTelemetry(ftcTelemetry)
         robotTelemetry.namespace = "Main"
 
+        // Trace buffers of the last OpMode's threads are no longer needed
+        Tracer.dropFinishedThreads()
+
+        // Record everything at full rate for after the match
+        if (LogConfig.enabled) {
+            DataLogger.start()
+        }
 
         // Initialize robot hardware
         RobotHardware.init(this, runtime)
+        RobotOutputs.init()
+
+        // Bulk-read encoders and flush outputs once per cycle (added first so it starts first)
+        threadManager.addThread(HardwareCycle())
 
         
         // Create and initialize command scheduler
@@ -175,12 +229,15 @@ abstract class ThreadedOpMode : LinearOpMode() {
 
 
         // Initialize subsystems and command system
-        // Subsystems will auto-register themselves during construction
+        // Subsystems add themselves to the thread manager during construction
         initOpMode()
 
+        // Send telemetry from its own thread so the main loop never waits on it
+        threadManager.addThread(TelemetryPublisher(robotTelemetry))
+
         // Set telemetry for all threads
         for (thread in threadManager.getThreads()) {
-            thread?.telemetry = robotTelemetry
+            thread?.attachTelemetry(robotTelemetry)
         }
 
         robotTelemetry.addData("Status", "Initialized")
@@ -195,6 +252,12 @@ abstract class ThreadedOpMode : LinearOpMode() {
         // Start all threads
         threadManager.startAll()
 
+        // Build reusable commands. Their constructors look up subsystems with current(),
+        // which waits until each subsystem registers as it starts running
+        for (command in reusableCommands) {
+            command.value
+        }
+
 
         // Call onStart hook for user initialization after threads start
         onStart()
@@ -219,14 +282,16 @@ abstract class ThreadedOpMode : LinearOpMode() {
                     throw e
                 }
 
-
-                // Update telemetry - displays all thread data + main loop data
-                robotTelemetry.update()
+                // Telemetry is sent by TelemetryPublisher, so pace the loop here instead
+                if (mainLoopIntervalMs > 0) sleep(mainLoopIntervalMs)
             }
         } finally {
             // Ensure threads are stopped even if exception occurs
             threadManager.stopAll()
             cleanup()
+            // HardwareCycle is stopped, so send the final outputs (e.g. motors stopped in cleanup()) directly
+            RobotOutputs.flush(force = true)
+            DataLogger.stop()
             // Clear command scheduler instance
             CommandScheduler.setInstance(null)
             // Clear current instance
@@ -296,10 +361,16 @@ abstract class ThreadedOpMode : LinearOpMode() {
     /**
      * Override this method to implement your main loop logic.
      * This is called repeatedly while the OpMode is active.
-     * Telemetry staging and updates are handled automatically.
+     * Telemetry staging is handled automatically; TelemetryPublisher sends it.
      */
     protected abstract fun mainLoop()
 
+    /**
+     * Pause between mainLoop() calls. The loop used to be paced by the telemetry
+     * update; without it, gamepad polling doesn't need to spin faster than this.
+     */
+    protected open val mainLoopIntervalMs: Long = 5
+
     /**
      * Override this method for cleanup operations.
      * Called after threads are stopped.
@@ -307,6 +378,14 @@ abstract class ThreadedOpMode : LinearOpMode() {
     protected open fun cleanup() {}
 
 
+    /**
+     * Reset the loop timing histograms and overrun counters of every thread.
+     * Useful to compare match phases, e.g. call it when autonomous ends or endgame starts.
+     */
+    protected fun resetLoopTiming() {
+        threadManager.resetLoopStats()
+    }
+
     val runtimeTime: ElapsedTime
         /**
          * Get the runtime timer